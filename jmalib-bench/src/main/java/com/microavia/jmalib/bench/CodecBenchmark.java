@@ -0,0 +1,64 @@
+package com.microavia.jmalib.bench;
+
+import com.microavia.jmalib.log.ulog.Codec;
+import com.microavia.jmalib.log.ulog.Parser;
+import com.microavia.jmalib.log.ulog.ULogTestWriter;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of {@link Codec} struct parsers on structs of the test log.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CodecBenchmark {
+    private static final int MESSAGES_NUM = 1024;
+
+    @Param({"sensor", "att_pos"})
+    public String typeName;
+
+    @Param({"false", "true"})
+    public boolean compiledParsers;
+
+    private Parser parser;
+    private ByteBuffer buffer;
+
+    @Setup
+    public void setup() {
+        var codec = new Codec();
+        codec.setCompiledParsers(compiledParsers);
+        codec.addStructType("vec3", ULogTestWriter.VEC3_FORMAT);
+        codec.addStructType("sensor", ULogTestWriter.SENSOR_FORMAT);
+        codec.addStructType("att_pos", ULogTestWriter.ATT_POS_FORMAT);
+        parser = codec.getValueParser(typeName);
+        buffer = ByteBuffer.allocate(MESSAGES_NUM * 256).order(ByteOrder.LITTLE_ENDIAN);
+        for (int i = 0; i < MESSAGES_NUM; i++) {
+            if (typeName.equals("sensor")) {
+                ULogTestWriter.putSensor(buffer, i);
+            } else {
+                ULogTestWriter.putAttPos(buffer, i * 10);
+            }
+        }
+        buffer.flip();
+    }
+
+    /**
+     * Parse {@link #MESSAGES_NUM} messages.
+     */
+    @Benchmark
+    @OperationsPerInvocation(MESSAGES_NUM)
+    public void parse(Blackhole bh) {
+        buffer.position(0);
+        for (int i = 0; i < MESSAGES_NUM; i++) {
+            bh.consume(parser.parse(buffer));
+        }
+    }
+}
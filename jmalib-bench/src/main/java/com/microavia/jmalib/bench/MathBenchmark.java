@@ -0,0 +1,66 @@
+package com.microavia.jmalib.bench;
+
+import com.microavia.jmalib.math.GlobalPositionProjector;
+import com.microavia.jmalib.math.LatLonAlt;
+import com.microavia.jmalib.math.RotationUtil;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of rotation and geo position conversion utils.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MathBenchmark {
+    private double roll = 0.1;
+    private double pitch = -0.2;
+    private double yaw = 1.5;
+    private double[] q;
+    private double[] v = {1.0, 2.0, 3.0};
+    private GlobalPositionProjector projector;
+    private LatLonAlt position;
+    private double[] local = {100.0, -200.0, 10.0};
+
+    @Setup
+    public void setup() {
+        q = RotationUtil.quaternionByEulerAngles(roll, pitch, yaw);
+        projector = new GlobalPositionProjector();
+        projector.init(new LatLonAlt(55.0, 37.0, 100.0));
+        position = new LatLonAlt(55.001, 37.002, 120.0);
+    }
+
+    @Benchmark
+    public double[] quaternionByEulerAngles() {
+        return RotationUtil.quaternionByEulerAngles(roll, pitch, yaw);
+    }
+
+    @Benchmark
+    public double[] rotationMatrixByQuaternion() {
+        return RotationUtil.rotationMatrixByQuaternion(q);
+    }
+
+    @Benchmark
+    public double[] eulerAnglesByQuaternion() {
+        return RotationUtil.eulerAnglesByQuaternion(q);
+    }
+
+    @Benchmark
+    public double[] rotateByQuaternion() {
+        return RotationUtil.rotateByQuaternion(v, q);
+    }
+
+    @Benchmark
+    public double[] project() {
+        return projector.project(position);
+    }
+
+    @Benchmark
+    public LatLonAlt reproject() {
+        return projector.reproject(local);
+    }
+}
@@ -0,0 +1,140 @@
+package com.microavia.jmalib.bench;
+
+import com.microavia.jmalib.log.ReaderOptions;
+import com.microavia.jmalib.log.ulog.DecodeMode;
+import com.microavia.jmalib.log.ulog.Getter;
+import com.microavia.jmalib.log.ulog.ULogReader;
+import com.microavia.jmalib.log.ulog.ULogTestWriter;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of {@link ULogReader} on the test log: opening, seeking and reading of the whole log.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ULogReaderBenchmark {
+    private static final String[] FIELDS = {
+            "SENSOR.acc.x", "SENSOR.acc.y", "SENSOR.acc.z", "SENSOR.gyro.x", "SENSOR.temp",
+            "ATTITUDE_POSITION.alt_el", "ATTITUDE_POSITION.alt_baro", "ATTITUDE_POSITION.lat",
+            "ATTITUDE_POSITION.counter", "STATUS.arming_state"};
+
+    @Param({"60"})
+    public int logSeconds;
+
+    @Param({"BUFFERED", "MAPPED", "READ_AHEAD"})
+    public ReaderOptions.IOMode ioMode;
+
+    @Param({"EAGER", "LAZY", "REUSE"})
+    public DecodeMode decodeMode;
+
+    @Param({"false", "true"})
+    public boolean compiledParsers;
+
+    private Path logPath;
+    private ULogReader reader;
+    private List<Getter> getters;
+    private long[] seekTimes;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        logPath = Files.createTempFile("jmalib-bench", ".ulg");
+        ULogTestWriter.writeTestLog(logPath, logSeconds);
+        reader = new ULogReader(logPath.toString(), getOptions());
+        getters = new ArrayList<>();
+        for (String field : FIELDS) {
+            int idx = field.indexOf('.');
+            getters.add(reader.addSubscription(field.substring(0, idx), decodeMode).createGetter(field.substring(idx + 1)));
+        }
+        seekTimes = new long[64];
+        for (int i = 0; i < seekTimes.length; i++) {
+            seekTimes[i] = reader.getStartMicroseconds() + reader.getSizeMicroseconds() * ((i * 37L) % seekTimes.length) / seekTimes.length;
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        reader.close();
+        Files.deleteIfExists(logPath);
+    }
+
+    private ReaderOptions getOptions() {
+        return new ReaderOptions().setIOMode(ioMode).setCompiledParsers(compiledParsers);
+    }
+
+    @Benchmark
+    public ULogReader open() throws Exception {
+        var r = new ULogReader(logPath.toString(), getOptions());
+        r.close();
+        return r;
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public void seek(Blackhole bh) throws IOException {
+        for (long t : seekTimes) {
+            bh.consume(reader.seek(t));
+        }
+    }
+
+    /**
+     * Read the whole log with {@link Getter#get()} calls for all updated fields.
+     */
+    @Benchmark
+    public long readUpdateGet(Blackhole bh) throws IOException {
+        reader.seek(0);
+        long n = 0;
+        try {
+            while (true) {
+                reader.readUpdate();
+                for (Getter getter : getters) {
+                    if (getter.isUpdated()) {
+                        bh.consume(getter.get());
+                    }
+                }
+                n++;
+            }
+        } catch (EOFException ignored) {
+        }
+        return n;
+    }
+
+    /**
+     * Read the whole log with {@link Getter#getDouble()} calls for all updated fields.
+     */
+    @Benchmark
+    public long readUpdateGetDouble(Blackhole bh) throws IOException {
+        reader.seek(0);
+        long n = 0;
+        try {
+            while (true) {
+                reader.readUpdate();
+                for (Getter getter : getters) {
+                    if (getter.isUpdated()) {
+                        bh.consume(getter.getDouble());
+                    }
+                }
+                n++;
+            }
+        } catch (EOFException ignored) {
+        }
+        return n;
+    }
+
+    @Benchmark
+    public Object readColumns() throws IOException {
+        return reader.readColumns(List.of(FIELDS));
+    }
+}
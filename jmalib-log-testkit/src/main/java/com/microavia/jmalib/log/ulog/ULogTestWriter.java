@@ -0,0 +1,208 @@
+package com.microavia.jmalib.log.ulog;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Writer of synthetic ULog v2 files for tests and benchmarks. Located in the package of the parser, so tests of the
+ * parser can call package-private message writing methods, e.g. {@link #format}, {@link #topic} and {@link #data}.
+ */
+public class ULogTestWriter implements Closeable {
+    static final int ATT_POS_ID = 1;
+    static final int SENSOR_ID = 2;
+    static final int STATUS_ID = 3;
+    public static final String VEC3_FORMAT = "float x;float y;float z;";
+    public static final String SENSOR_FORMAT = "vec3 acc;vec3 gyro;uint16 temp;int8[4] flags;";
+    public static final String ATT_POS_FORMAT = "float alt_el;float alt_baro;double lat;uint8[] vec;int32 counter;";
+    // Same as in ULogHeader, the writer doesn't depend on the parser
+    private static final int MESSAGE_HEADER_SIZE = 4;
+    private static final byte[] SYNC_MAGIC = {0x2F, 0x73, 0x13, 0x20, 0x25, 0x0C, (byte) 0xBB, 0x12};
+
+    private final OutputStream out;
+    private final ByteBuffer msg = ByteBuffer.allocate(0x10000).order(ByteOrder.LITTLE_ENDIAN);
+    private long position = 0;
+
+    ULogTestWriter(Path path) throws IOException {
+        out = new BufferedOutputStream(Files.newOutputStream(path));
+        raw("ULG2".getBytes(StandardCharsets.ISO_8859_1));
+    }
+
+    /**
+     * Get number of bytes written.
+     */
+    long position() {
+        return position;
+    }
+
+    /**
+     * Write flag bits message, must be the first message.
+     */
+    void flagBits(long incompatFlags, long... appendedOffsets) throws IOException {
+        msg.clear();
+        msg.putLong(0);
+        msg.putLong(incompatFlags);
+        for (int i = 0; i < 3; i++) {
+            msg.putLong(i < appendedOffsets.length ? appendedOffsets[i] : 0);
+        }
+        write('B');
+    }
+
+    void sync() throws IOException {
+        msg.clear();
+        msg.put(SYNC_MAGIC);
+        write('S');
+    }
+
+    void dropout(int durationMs) throws IOException {
+        msg.clear();
+        msg.putShort((short) durationMs);
+        write('O');
+    }
+
+    void logging(int level, long timestamp, String text) throws IOException {
+        msg.clear();
+        msg.put((byte) ('0' + level));
+        msg.putLong(timestamp);
+        putString(text);
+        write('L');
+    }
+
+    void format(String name, String fields) throws IOException {
+        msg.clear();
+        putString(name + ":" + fields);
+        write('F');
+    }
+
+    void topic(int msgId, String name, String typeName) throws IOException {
+        msg.clear();
+        msg.putShort((short) msgId);
+        putString(name + ":" + typeName);
+        write('A');
+    }
+
+    void info(String key, String value) throws IOException {
+        msg.clear();
+        String keyStr = "char[" + value.length() + "] " + key;
+        msg.put((byte) keyStr.length());
+        putString(keyStr);
+        putString(value);
+        write('I');
+    }
+
+    void parameter(String name, float value) throws IOException {
+        msg.clear();
+        String keyStr = "float " + name;
+        msg.put((byte) keyStr.length());
+        putString(keyStr);
+        msg.putFloat(value);
+        write('P');
+    }
+
+    /**
+     * Start data message, payload should be put to returned buffer and then message finished with {@link #end()}.
+     */
+    ByteBuffer data(int msgId, int multiId, long timestamp) {
+        msg.clear();
+        msg.putShort((short) msgId);
+        msg.put((byte) multiId);
+        msg.putLong(timestamp);
+        return msg;
+    }
+
+    void end() throws IOException {
+        write('D');
+    }
+
+    void raw(byte[] bytes) throws IOException {
+        out.write(bytes);
+        position += bytes.length;
+    }
+
+    private void putString(String s) {
+        msg.put(s.getBytes(StandardCharsets.ISO_8859_1));
+    }
+
+    private void write(int msgType) throws IOException {
+        msg.flip();
+        out.write('>');
+        out.write(msgType);
+        out.write(msg.remaining() & 0xFF);
+        out.write((msg.remaining() >> 8) & 0xFF);
+        out.write(msg.array(), 0, msg.remaining());
+        position += MESSAGE_HEADER_SIZE + msg.remaining();
+    }
+
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+
+    /**
+     * Write test log with 1 kHz SENSOR topic, 100 Hz ATTITUDE_POSITION topic and 1 Hz STATUS topic.
+     *
+     * @param path    file path
+     * @param seconds log duration
+     */
+    public static void writeTestLog(Path path, int seconds) throws IOException {
+        try (var w = new ULogTestWriter(path)) {
+            w.info("sys_name", "TestSystem");
+            w.info("ver_hw", "HW1");
+            w.parameter("PARAM_A", 1.5f);
+            w.format("vec3", VEC3_FORMAT);
+            w.format("sensor", SENSOR_FORMAT);
+            w.format("att_pos", ATT_POS_FORMAT);
+            w.format("status", "uint8 arming_state;uint64 uptime;");
+            w.topic(SENSOR_ID, "SENSOR", "sensor");
+            w.topic(ATT_POS_ID, "ATTITUDE_POSITION", "att_pos");
+            w.topic(STATUS_ID, "STATUS", "status");
+            long t0 = 1_000_000;
+            for (int i = 0; i < seconds * 1000; i++) {
+                long t = t0 + i * 1000L;
+                putSensor(w.data(SENSOR_ID, i % 2 == 0 ? 0x80 : 0x01, t), i);
+                w.end();
+                if (i % 10 == 0) {
+                    putAttPos(w.data(ATT_POS_ID, 0x80, t), i);
+                    w.end();
+                }
+                if (i % 1000 == 0) {
+                    var b = w.data(STATUS_ID, 0x80, t);
+                    b.put((byte) ((i / 1000) % 3));
+                    b.putLong(t);
+                    w.end();
+                }
+            }
+        }
+    }
+
+    /**
+     * Put payload of i-th message of SENSOR topic of the test log, "sensor" struct.
+     */
+    public static void putSensor(ByteBuffer b, int i) {
+        for (int j = 0; j < 6; j++) {
+            b.putFloat(i * 0.001f + j);
+        }
+        b.putShort((short) (i & 0xFFFF));
+        b.put(new byte[]{1, 2, 3, (byte) i});
+    }
+
+    /**
+     * Put payload of ATTITUDE_POSITION topic of the test log at i-th SENSOR message, "att_pos" struct.
+     */
+    public static void putAttPos(ByteBuffer b, int i) {
+        b.putFloat(i * 0.1f);
+        b.putFloat(-i * 0.1f);
+        b.putDouble(55.0 + i * 1e-6);
+        b.putInt((i / 10) % 4);
+        for (int j = 0; j < (i / 10) % 4; j++) {
+            b.put((byte) (i + j));
+        }
+        b.putInt(i);
+    }
+}
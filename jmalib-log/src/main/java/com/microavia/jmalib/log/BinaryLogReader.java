@@ -5,30 +5,116 @@ import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
 
 /**
  * User: ton Date: 03.06.13 Time: 14:51
  */
 public abstract class BinaryLogReader implements LogReader {
+    /**
+     * Overlap of mapped segments, must be larger than any single message, so a message started in a segment
+     * can be always parsed without switching to the next one.
+     */
+    private static final int SEGMENT_OVERLAP = 0x10000 + 64;
+
     protected ByteBuffer buffer;
-    private FileChannel channel;
+    private FileChannel fileChannel;
+    private SeekableByteChannel channel;
     private long channelPosition = 0;
+    private final ReaderOptions.IOMode ioMode;
+    private long fileSize = 0;
+    private long segmentStep = 0;
+    private MappedByteBuffer[] segments = null;
+    private int segmentIdx = -1;
+    private final ByteBufferPool bufferPool;
 
     public BinaryLogReader(String fileName) throws IOException {
-        buffer = ByteBuffer.allocate(8192);
-        buffer.order(ByteOrder.LITTLE_ENDIAN);
-        buffer.flip();
-        channel = new RandomAccessFile(fileName, "r").getChannel();
+        this(fileName, new ReaderOptions());
+    }
+
+    public BinaryLogReader(String fileName, ReaderOptions options) throws IOException {
+        fileChannel = new RandomAccessFile(fileName, "r").getChannel();
+        ioMode = options.getIOMode();
+        if (ioMode == ReaderOptions.IOMode.MAPPED) {
+            bufferPool = null;
+        } else if (options.getBufferPool() != null) {
+            bufferPool = options.getBufferPool();
+        } else if (options.isDirectBuffers()) {
+            bufferPool = ByteBufferPool.getSharedDirectPool(options.getBufferSize());
+        } else {
+            bufferPool = null;
+        }
+        try {
+            if (ioMode == ReaderOptions.IOMode.READ_AHEAD) {
+                channel = new ReadAheadChannel(fileChannel, options.getReadAheadBlockSize(), options.getReadAheadDepth());
+            } else {
+                channel = fileChannel;
+            }
+            if (ioMode == ReaderOptions.IOMode.MAPPED) {
+                fileSize = fileChannel.size();
+                segmentStep = Math.min(options.getMappedSegmentSize(), Integer.MAX_VALUE - SEGMENT_OVERLAP);
+                int segmentsNum = (int) Math.max(1, (fileSize - SEGMENT_OVERLAP + segmentStep - 1) / segmentStep);
+                segments = new MappedByteBuffer[segmentsNum];
+                selectSegment(0);
+            } else {
+                if (bufferPool != null) {
+                    buffer = bufferPool.acquire();
+                } else {
+                    buffer = ByteBuffer.allocate(options.getBufferSize());
+                    buffer.order(ByteOrder.LITTLE_ENDIAN);
+                }
+                buffer.flip();
+            }
+        } catch (Throwable e) {
+            closeOnFailure(e);
+            throw e;
+        }
+    }
+
+    /**
+     * Close the reader if its constructor failed, so the file, read-ahead thread and pooled buffer are not leaked.
+     * Errors of closing are added to the exception as suppressed.
+     *
+     * @param e exception thrown by the constructor
+     */
+    protected void closeOnFailure(Throwable e) {
+        try {
+            close();
+        } catch (IOException ce) {
+            e.addSuppressed(ce);
+        }
     }
 
     @Override
     public void close() throws IOException {
-        channel.close();
-        channel = null;
+        try {
+            if (channel != null) {
+                channel.close();
+            } else if (fileChannel != null) {
+                fileChannel.close();
+            }
+        } finally {
+            channel = null;
+            fileChannel = null;
+            // Mappings are released by GC when not referenced anymore
+            segments = null;
+            if (bufferPool != null && buffer != null) {
+                bufferPool.release(buffer);
+                buffer = null;
+            }
+        }
     }
 
     public int fillBuffer() throws IOException {
+        if (segments != null) {
+            int remaining = buffer.remaining();
+            if (!nextSegment() && position() >= fileSize) {
+                throw new EOFException();
+            }
+            return buffer.remaining() - remaining;
+        }
         buffer.compact();
         int n = channel.read(buffer);
         buffer.flip();
@@ -41,21 +127,71 @@ public abstract class BinaryLogReader implements LogReader {
 
     protected void fillBuffer(int required) throws IOException {
         if (buffer.remaining() < required) {
+            if (segments != null) {
+                nextSegment();
+                if (buffer.remaining() < required) {
+                    throw new EOFException();
+                }
+                return;
+            }
+            if (required > buffer.capacity()) {
+                growBuffer(required);
+            }
             buffer.compact();
-            int n = channel.read(buffer);
-            buffer.flip();
-            if (n < 0 || buffer.remaining() < required) {
+            try {
+                // Channel may return less than requested, e.g. read-ahead channel at the end of a block
+                while (buffer.position() < required) {
+                    int n = channel.read(buffer);
+                    if (n <= 0) {
+                        break;
+                    }
+                    channelPosition += n;
+                }
+            } finally {
+                buffer.flip();
+            }
+            if (buffer.remaining() < required) {
                 throw new EOFException();
             }
-            channelPosition += n;
         }
     }
 
+    /**
+     * Replace buffer with larger one to fit a message larger than buffer, remaining data is kept.
+     */
+    private void growBuffer(int required) {
+        int capacity = Integer.highestOneBit(required - 1) << 1;
+        ByteBuffer newBuffer = buffer.isDirect() ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+        newBuffer.order(ByteOrder.LITTLE_ENDIAN);
+        newBuffer.put(buffer);
+        newBuffer.flip();
+        if (bufferPool != null) {
+            bufferPool.release(buffer);
+        }
+        buffer = newBuffer;
+    }
+
     protected long position() {
         return channelPosition - buffer.remaining();
     }
 
     protected void position(long pos) throws IOException {
+        if (segments != null) {
+            if (pos < 0 || pos >= fileSize) {
+                throw new EOFException();
+            }
+            int idx = (int) Math.min(pos / segmentStep, segments.length - 1);
+            if (idx != segmentIdx) {
+                selectSegment(idx);
+            }
+            buffer.position((int) (pos - idx * segmentStep));
+            return;
+        }
+        if (pos >= channelPosition - buffer.limit() && pos < channelPosition) {
+            // Already in buffer, avoid reading
+            buffer.position((int) (pos - channelPosition + buffer.limit()));
+            return;
+        }
         buffer.clear();
         channel.position(pos);
         channelPosition = pos;
@@ -66,4 +202,32 @@ public abstract class BinaryLogReader implements LogReader {
         }
         channelPosition += n;
     }
+
+    /**
+     * Switch to the mapped segment that contains current position, if it's not the current one.
+     *
+     * @return true if segment was switched
+     */
+    private boolean nextSegment() throws IOException {
+        long pos = position();
+        int idx = (int) Math.min(pos / segmentStep, segments.length - 1);
+        if (idx == segmentIdx) {
+            return false;
+        }
+        selectSegment(idx);
+        buffer.position((int) (pos - idx * segmentStep));
+        return true;
+    }
+
+    private void selectSegment(int idx) throws IOException {
+        long base = idx * segmentStep;
+        if (segments[idx] == null) {
+            long size = Math.min(fileSize - base, segmentStep + SEGMENT_OVERLAP);
+            segments[idx] = fileChannel.map(FileChannel.MapMode.READ_ONLY, base, size);
+        }
+        // Duplicate resets byte order, so set it every time
+        buffer = segments[idx].duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        segmentIdx = idx;
+        channelPosition = base + buffer.limit();
+    }
 }
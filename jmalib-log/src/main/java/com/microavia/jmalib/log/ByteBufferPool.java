@@ -0,0 +1,88 @@
+package com.microavia.jmalib.log;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Thread safe pool of read buffers, allows to reuse buffers when many logs are opened one after another.
+ */
+public class ByteBufferPool {
+    private static final Map<Integer, ByteBufferPool> sharedDirectPools = new ConcurrentHashMap<>();
+
+    private final int bufferSize;
+    private final int maxBuffers;
+    private final boolean direct;
+    private final ConcurrentLinkedQueue<ByteBuffer> buffers = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger buffersNum = new AtomicInteger();
+
+    /**
+     * @param bufferSize size of buffers in bytes
+     * @param maxBuffers max number of idle buffers kept in the pool
+     */
+    public ByteBufferPool(int bufferSize, int maxBuffers) {
+        this(bufferSize, maxBuffers, false);
+    }
+
+    /**
+     * @param bufferSize size of buffers in bytes
+     * @param maxBuffers max number of idle buffers kept in the pool
+     * @param direct     allocate direct (off-heap) buffers
+     */
+    public ByteBufferPool(int bufferSize, int maxBuffers, boolean direct) {
+        if (bufferSize <= 0) {
+            throw new IllegalArgumentException("Invalid buffer size: " + bufferSize);
+        }
+        this.bufferSize = bufferSize;
+        this.maxBuffers = maxBuffers;
+        this.direct = direct;
+    }
+
+    /**
+     * Get pool of direct buffers shared by all readers that use direct buffers of the same size without own pool.
+     * Allocation of direct buffers is expensive and their memory is released only by GC, so they should be reused.
+     */
+    public static ByteBufferPool getSharedDirectPool(int bufferSize) {
+        return sharedDirectPools.computeIfAbsent(bufferSize, size -> new ByteBufferPool(size, 64, true));
+    }
+
+    public boolean isDirect() {
+        return direct;
+    }
+
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    /**
+     * Take buffer from the pool or allocate new one if pool is empty.
+     *
+     * @return cleared little endian buffer
+     */
+    public ByteBuffer acquire() {
+        ByteBuffer buffer = buffers.poll();
+        if (buffer == null) {
+            buffer = direct ? ByteBuffer.allocateDirect(bufferSize) : ByteBuffer.allocate(bufferSize);
+        } else {
+            buffersNum.decrementAndGet();
+        }
+        return buffer.clear().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Return buffer to the pool, buffer must not be used after this.
+     */
+    public void release(ByteBuffer buffer) {
+        if (buffer.capacity() != bufferSize || buffer.isDirect() != direct) {
+            return;
+        }
+        if (buffersNum.incrementAndGet() > maxBuffers) {
+            buffersNum.decrementAndGet();
+            return;
+        }
+        buffers.offer(buffer);
+    }
+}
@@ -0,0 +1,189 @@
+package com.microavia.jmalib.log;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Bounded record of non-fatal format errors: number of errors of every kind and ring of the most recent errors.
+ * Errors are stored as plain records and converted to exceptions only on request, so logs with lots of corrupted
+ * data don't allocate exceptions with stack traces and memory used for errors doesn't grow.
+ */
+public class ErrorLog {
+    public static final int DEFAULT_CAPACITY = 256;
+
+    public enum Kind {
+        /**
+         * Wrong sync byte, data skipped until next message.
+         */
+        SYNC,
+        /**
+         * Message truncated by end of file.
+         */
+        TRUNCATED,
+        /**
+         * Message can't be parsed.
+         */
+        PARSE,
+        /**
+         * Parsed size of message differs from its size in header.
+         */
+        SIZE_MISMATCH,
+        /**
+         * Invalid definition of type, topic, info or parameter.
+         */
+        DEFINITION,
+        /**
+         * Unknown message type.
+         */
+        UNKNOWN_MESSAGE,
+        /**
+         * Message not expected at this place.
+         */
+        UNEXPECTED_MESSAGE
+    }
+
+    /**
+     * Error record.
+     *
+     * @param position position in the log or -1 if unknown
+     */
+    public record Error(Kind kind, long position, String message, Throwable cause) {
+        public FormatErrorException toException() {
+            return position >= 0 ? new FormatErrorException(position, message, cause) : new FormatErrorException(message, cause);
+        }
+    }
+
+    private final Error[] ring;
+    private final long[] counts = new long[Kind.values().length];
+    private int head = 0;
+    private int size = 0;
+    private List<Exception> exceptions = null;
+
+    public ErrorLog() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity max number of recorded errors, older errors are dropped, but still counted
+     */
+    public ErrorLog(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Invalid capacity: " + capacity);
+        }
+        ring = new Error[capacity];
+    }
+
+    public void add(Kind kind, long position, String message) {
+        add(new Error(kind, position, message, null));
+    }
+
+    public void add(Kind kind, long position, String message, Throwable cause) {
+        add(new Error(kind, position, message, cause));
+    }
+
+    public void add(Error error) {
+        counts[error.kind().ordinal()]++;
+        ring[(head + size) % ring.length] = error;
+        if (size < ring.length) {
+            size++;
+        } else {
+            head = (head + 1) % ring.length;
+        }
+        exceptions = null;
+    }
+
+    /**
+     * Count errors without recording them, e.g. errors dropped from the ring before saving.
+     */
+    public void addCount(Kind kind, long count) {
+        counts[kind.ordinal()] += count;
+    }
+
+    /**
+     * Add all errors and counters of another log.
+     */
+    public void addAll(ErrorLog other) {
+        for (Error error : other.getRecords()) {
+            add(error);
+        }
+        for (Kind kind : Kind.values()) {
+            counts[kind.ordinal()] += other.counts[kind.ordinal()] - other.countRecords(kind);
+        }
+    }
+
+    private int countRecords(Kind kind) {
+        int n = 0;
+        for (int i = 0; i < size; i++) {
+            if (ring[(head + i) % ring.length].kind() == kind) {
+                n++;
+            }
+        }
+        return n;
+    }
+
+    /**
+     * Get recorded errors, oldest first.
+     */
+    public List<Error> getRecords() {
+        List<Error> res = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            res.add(ring[(head + i) % ring.length]);
+        }
+        return res;
+    }
+
+    /**
+     * Get recorded errors as exceptions, oldest first.
+     */
+    public List<Exception> getErrors() {
+        if (exceptions == null) {
+            List<Exception> res = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                res.add(ring[(head + i) % ring.length].toException());
+            }
+            exceptions = Collections.unmodifiableList(res);
+        }
+        return exceptions;
+    }
+
+    public long getCount(Kind kind) {
+        return counts[kind.ordinal()];
+    }
+
+    /**
+     * Get number of errors of all kinds, including dropped from the ring.
+     */
+    public long getTotalCount() {
+        long n = 0;
+        for (long c : counts) {
+            n += c;
+        }
+        return n;
+    }
+
+    public Map<Kind, Long> getCounts() {
+        Map<Kind, Long> res = new EnumMap<>(Kind.class);
+        for (Kind kind : Kind.values()) {
+            if (counts[kind.ordinal()] > 0) {
+                res.put(kind, counts[kind.ordinal()]);
+            }
+        }
+        return res;
+    }
+
+    public boolean isEmpty() {
+        return getTotalCount() == 0;
+    }
+
+    public void clear() {
+        Arrays.fill(ring, null);
+        Arrays.fill(counts, 0);
+        head = 0;
+        size = 0;
+        exceptions = null;
+    }
+}
@@ -8,6 +8,10 @@ public class FormatErrorException extends Exception {
         super(s);
     }
 
+    public FormatErrorException(String s, Throwable cause) {
+        super(s, cause);
+    }
+
     public FormatErrorException(long position, String s) {
         super(position + ": " + s);
     }
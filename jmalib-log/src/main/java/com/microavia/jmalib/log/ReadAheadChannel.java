@@ -0,0 +1,224 @@
+package com.microavia.jmalib.log;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.SeekableByteChannel;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Read-only channel that reads file sequentially ahead of the consumer in a background thread, so reading from
+ * disk and parsing overlap. Blocks of fixed size are prefetched into a bounded queue, changing position discards
+ * prefetched blocks and restarts reading from the new position.
+ */
+class ReadAheadChannel implements SeekableByteChannel {
+    private static class Block {
+        final long generation;
+        final ByteBuffer buffer;
+        final IOException error;
+
+        Block(long generation, ByteBuffer buffer, IOException error) {
+            this.generation = generation;
+            this.buffer = buffer;
+            this.error = error;
+        }
+    }
+
+    private final FileChannel channel;
+    private final BlockingQueue<ByteBuffer> freeBuffers;
+    private final BlockingQueue<Block> filledBlocks;
+    private final Thread thread;
+    private final Object lock = new Object();
+    // Guarded by lock: position of the next block to read by background thread and generation of requests
+    private long readPosition = 0;
+    private long generation = 0;
+    private boolean closed = false;
+    // Consumer state
+    private Block current = null;
+    private long position = 0;
+
+    /**
+     * @param channel   file channel, closed when this channel is closed
+     * @param blockSize size of a single read
+     * @param depth     number of blocks read ahead
+     */
+    ReadAheadChannel(FileChannel channel, int blockSize, int depth) {
+        this.channel = channel;
+        this.freeBuffers = new ArrayBlockingQueue<>(depth + 1);
+        this.filledBlocks = new ArrayBlockingQueue<>(depth + 1);
+        for (int i = 0; i < depth + 1; i++) {
+            freeBuffers.add(ByteBuffer.allocate(blockSize));
+        }
+        thread = new Thread(this::readLoop, "log-read-ahead");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void readLoop() {
+        try {
+            while (true) {
+                ByteBuffer buffer = freeBuffers.take();
+                long gen;
+                long pos;
+                synchronized (lock) {
+                    while (!closed && readPosition < 0) {
+                        // End of file reached, wait for position change
+                        lock.wait();
+                    }
+                    if (closed) {
+                        return;
+                    }
+                    gen = generation;
+                    pos = readPosition;
+                }
+                buffer.clear();
+                IOException error = null;
+                int n;
+                try {
+                    n = channel.read(buffer, pos);
+                } catch (IOException e) {
+                    n = -1;
+                    error = e;
+                }
+                buffer.flip();
+                synchronized (lock) {
+                    if (gen == generation) {
+                        // Stop at end of file or error until position is changed
+                        readPosition = n < 0 ? -1 : pos + n;
+                    }
+                }
+                filledBlocks.put(new Block(gen, n < 0 ? null : buffer, error));
+                if (n < 0) {
+                    freeBuffers.add(buffer);
+                }
+            }
+        } catch (InterruptedException ignored) {
+            // Closed
+        }
+    }
+
+    /**
+     * Take next prefetched block of current generation.
+     *
+     * @return false on end of file
+     */
+    private boolean nextBlock() throws IOException {
+        releaseCurrent();
+        long gen;
+        synchronized (lock) {
+            gen = generation;
+        }
+        try {
+            while (true) {
+                Block block = filledBlocks.take();
+                if (block.generation != gen) {
+                    // Stale block read before position change
+                    if (block.buffer != null) {
+                        freeBuffers.add(block.buffer);
+                    }
+                    continue;
+                }
+                if (block.buffer == null) {
+                    // End of file or error, allow reading again on next call, e.g. after file grows
+                    synchronized (lock) {
+                        readPosition = position;
+                        generation++;
+                        lock.notifyAll();
+                    }
+                    if (block.error != null) {
+                        throw block.error;
+                    }
+                    return false;
+                }
+                current = block;
+                return true;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+    }
+
+    private void releaseCurrent() {
+        if (current != null) {
+            freeBuffers.add(current.buffer);
+            current = null;
+        }
+    }
+
+    @Override
+    public int read(ByteBuffer dst) throws IOException {
+        if (!isOpen()) {
+            throw new ClosedChannelException();
+        }
+        if (current == null || !current.buffer.hasRemaining()) {
+            if (!nextBlock()) {
+                return -1;
+            }
+        }
+        ByteBuffer src = current.buffer;
+        int n = Math.min(src.remaining(), dst.remaining());
+        dst.put(dst.position(), src, src.position(), n);
+        dst.position(dst.position() + n);
+        src.position(src.position() + n);
+        position += n;
+        return n;
+    }
+
+    @Override
+    public long position() {
+        return position;
+    }
+
+    @Override
+    public SeekableByteChannel position(long newPosition) throws IOException {
+        if (!isOpen()) {
+            throw new ClosedChannelException();
+        }
+        if (newPosition == position) {
+            return this;
+        }
+        releaseCurrent();
+        synchronized (lock) {
+            generation++;
+            readPosition = newPosition;
+            lock.notifyAll();
+        }
+        position = newPosition;
+        return this;
+    }
+
+    @Override
+    public long size() throws IOException {
+        return channel.size();
+    }
+
+    @Override
+    public int write(ByteBuffer src) {
+        throw new NonWritableChannelException();
+    }
+
+    @Override
+    public SeekableByteChannel truncate(long size) {
+        throw new NonWritableChannelException();
+    }
+
+    @Override
+    public boolean isOpen() {
+        return channel.isOpen();
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (lock) {
+            closed = true;
+            lock.notifyAll();
+        }
+        thread.interrupt();
+        channel.close();
+    }
+}
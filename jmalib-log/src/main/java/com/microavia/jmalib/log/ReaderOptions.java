@@ -0,0 +1,226 @@
+package com.microavia.jmalib.log;
+
+/**
+ * Options controlling how a log file is opened and read.
+ */
+public class ReaderOptions {
+    public enum IOMode {
+        /**
+         * Read file through a heap buffer using {@link java.nio.channels.FileChannel#read}.
+         */
+        BUFFERED,
+        /**
+         * Map the file into memory and parse messages directly from the page cache.
+         */
+        MAPPED,
+        /**
+         * Read file sequentially in a background thread ahead of parsing, so disk reads and parsing overlap.
+         * Useful for network storage and cold disks, see {@link #setReadAheadBlockSize} and
+         * {@link #setReadAheadDepth}.
+         */
+        READ_AHEAD
+    }
+
+    private IOMode ioMode = IOMode.BUFFERED;
+    private long mappedSegmentSize = 1L << 30;
+    private boolean indexFileEnabled = false;
+    private boolean columnCacheEnabled = false;
+    private boolean lazyScan = false;
+    private boolean compiledParsers = false;
+    private ByteBufferPool bufferPool = null;
+    private int bufferSize = 65536;
+    private boolean directBuffers = false;
+    private int readAheadBlockSize = 1 << 20;
+    private int readAheadDepth = 2;
+
+    public ReaderOptions() {
+    }
+
+    public ReaderOptions(ReaderOptions other) {
+        this.ioMode = other.ioMode;
+        this.mappedSegmentSize = other.mappedSegmentSize;
+        this.indexFileEnabled = other.indexFileEnabled;
+        this.columnCacheEnabled = other.columnCacheEnabled;
+        this.lazyScan = other.lazyScan;
+        this.compiledParsers = other.compiledParsers;
+        this.bufferPool = other.bufferPool;
+        this.bufferSize = other.bufferSize;
+        this.directBuffers = other.directBuffers;
+        this.readAheadBlockSize = other.readAheadBlockSize;
+        this.readAheadDepth = other.readAheadDepth;
+    }
+
+    public IOMode getIOMode() {
+        return ioMode;
+    }
+
+    public ReaderOptions setIOMode(IOMode ioMode) {
+        this.ioMode = ioMode;
+        return this;
+    }
+
+    public long getMappedSegmentSize() {
+        return mappedSegmentSize;
+    }
+
+    /**
+     * Set size of a single mapping in {@link IOMode#MAPPED} mode. Files larger than this are mapped in several
+     * overlapping segments, the size is limited by 2 GB for a single mapping.
+     *
+     * @param mappedSegmentSize segment size in bytes
+     */
+    public ReaderOptions setMappedSegmentSize(long mappedSegmentSize) {
+        if (mappedSegmentSize <= 0) {
+            throw new IllegalArgumentException("Invalid mapped segment size: " + mappedSegmentSize);
+        }
+        this.mappedSegmentSize = mappedSegmentSize;
+        return this;
+    }
+
+    public boolean isIndexFileEnabled() {
+        return indexFileEnabled;
+    }
+
+    /**
+     * Enable sidecar index file, e.g. "flight.ulg.idx" for "flight.ulg". Index is built on the first opening and
+     * used on next openings to avoid scanning of the whole log. Index is rebuilt if size or modification time of
+     * the log changed.
+     *
+     * @param indexFileEnabled true to use index file
+     */
+    public ReaderOptions setIndexFileEnabled(boolean indexFileEnabled) {
+        this.indexFileEnabled = indexFileEnabled;
+        return this;
+    }
+
+    public boolean isColumnCacheEnabled() {
+        return columnCacheEnabled;
+    }
+
+    /**
+     * Enable sidecar columnar cache file, e.g. "flight.ulg.columns" for "flight.ulg". On the first bulk read of
+     * columns all scalar fields of the log are decoded and stored to the cache as contiguous typed columns, next
+     * bulk reads, also in next runs, return columns backed by memory mapped cache without parsing. Cache is rebuilt
+     * if size or modification time of the log changed.
+     *
+     * @param columnCacheEnabled true to use columnar cache file
+     */
+    public ReaderOptions setColumnCacheEnabled(boolean columnCacheEnabled) {
+        this.columnCacheEnabled = columnCacheEnabled;
+        return this;
+    }
+
+    public boolean isLazyScan() {
+        return lazyScan;
+    }
+
+    /**
+     * Parse only definitions on opening, up to the first data message. Log duration is found by reading the tail
+     * of the log, data messages are scanned on first request of data statistics or operations using the index,
+     * e.g. seeking to non-zero time. Definitions located after the first data message, e.g. topics added during
+     * logging, become available after data messages are scanned.
+     *
+     * @param lazyScan true to delay scanning of data messages
+     */
+    public ReaderOptions setLazyScan(boolean lazyScan) {
+        this.lazyScan = lazyScan;
+        return this;
+    }
+
+    public boolean isCompiledParsers() {
+        return compiledParsers;
+    }
+
+    /**
+     * Use parsers compiled for every struct type instead of generic parsers tree, faster for topics with many fields.
+     *
+     * @param compiledParsers true to use compiled parsers
+     */
+    public ReaderOptions setCompiledParsers(boolean compiledParsers) {
+        this.compiledParsers = compiledParsers;
+        return this;
+    }
+
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    /**
+     * Set size of read buffer for {@link IOMode#BUFFERED} and {@link IOMode#READ_AHEAD} modes, not used if buffer
+     * pool is set. Buffer grows automatically if a message doesn't fit into it.
+     *
+     * @param bufferSize buffer size in bytes
+     */
+    public ReaderOptions setBufferSize(int bufferSize) {
+        if (bufferSize <= 0) {
+            throw new IllegalArgumentException("Invalid buffer size: " + bufferSize);
+        }
+        this.bufferSize = bufferSize;
+        return this;
+    }
+
+    public boolean isDirectBuffers() {
+        return directBuffers;
+    }
+
+    /**
+     * Use direct (off-heap) read buffers from the pool shared by all readers, see
+     * {@link ByteBufferPool#getSharedDirectPool(int)}. Not used if buffer pool is set.
+     *
+     * @param directBuffers true to use direct buffers
+     */
+    public ReaderOptions setDirectBuffers(boolean directBuffers) {
+        this.directBuffers = directBuffers;
+        return this;
+    }
+
+    public ByteBufferPool getBufferPool() {
+        return bufferPool;
+    }
+
+    /**
+     * Set pool of read buffers for {@link IOMode#BUFFERED} and {@link IOMode#READ_AHEAD} modes. Buffer is taken
+     * from the pool when reader is opened and returned on closing.
+     *
+     * @param bufferPool pool or null to allocate new buffer for every reader
+     */
+    public ReaderOptions setBufferPool(ByteBufferPool bufferPool) {
+        this.bufferPool = bufferPool;
+        return this;
+    }
+
+    public int getReadAheadBlockSize() {
+        return readAheadBlockSize;
+    }
+
+    /**
+     * Set size of a single background read in {@link IOMode#READ_AHEAD} mode.
+     *
+     * @param readAheadBlockSize block size in bytes
+     */
+    public ReaderOptions setReadAheadBlockSize(int readAheadBlockSize) {
+        if (readAheadBlockSize <= 0) {
+            throw new IllegalArgumentException("Invalid read-ahead block size: " + readAheadBlockSize);
+        }
+        this.readAheadBlockSize = readAheadBlockSize;
+        return this;
+    }
+
+    public int getReadAheadDepth() {
+        return readAheadDepth;
+    }
+
+    /**
+     * Set number of blocks read ahead of parsing in {@link IOMode#READ_AHEAD} mode, memory used by reader is
+     * (depth + 1) * block size.
+     *
+     * @param readAheadDepth number of blocks
+     */
+    public ReaderOptions setReadAheadDepth(int readAheadDepth) {
+        if (readAheadDepth <= 0) {
+            throw new IllegalArgumentException("Invalid read-ahead depth: " + readAheadDepth);
+        }
+        this.readAheadDepth = readAheadDepth;
+        return this;
+    }
+}
@@ -20,4 +20,13 @@ class ArrayParser implements Parser {
         }
         return items;
     }
+
+    @Override
+    public Object parse(ByteBuffer buffer, Object reuse) {
+        Object[] items = reuse instanceof Object[] arr && arr.length == size ? arr : new Object[size];
+        for (int i = 0; i < size; i++) {
+            items[i] = itemParser.parse(buffer, items[i]);
+        }
+        return items;
+    }
 }
@@ -6,16 +6,70 @@ import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
+/**
+ * Types of a log and parsers for them. Resolved types and parsers are cached, parsers are stateless, so the same
+ * parser is used by all subscriptions. After {@link #freeze()} codec can't be modified and can be shared between
+ * threads and readers of logs with the same definitions, see {@link SchemaRegistry}.
+ */
 public class Codec {
     private static Charset charset = Charset.forName("latin1");
     private Map<String, Type> typeDescriptions = new HashMap<>();
+    private final Map<String, Type> typeCache = new ConcurrentHashMap<>();
+    private final Map<String, Parser> parserCache = new ConcurrentHashMap<>();
+    private boolean compiledParsers = false;
+    private volatile boolean frozen = false;
 
     Charset getCharset() {
         return charset;
     }
 
+    public boolean isCompiledParsers() {
+        return compiledParsers;
+    }
+
+    /**
+     * Enable compiled struct parsers: every struct type is compiled to a chain of method handles instead of tree of
+     * parsers, see {@link CompiledStructParser}. Values returned by parsers are the same.
+     *
+     * @param compiledParsers true to use compiled parsers for structs
+     */
+    public void setCompiledParsers(boolean compiledParsers) {
+        checkNotFrozen();
+        this.compiledParsers = compiledParsers;
+        parserCache.clear();
+    }
+
+    /**
+     * Disallow further modifications, so codec can be shared.
+     */
+    public void freeze() {
+        frozen = true;
+    }
+
+    public boolean isFrozen() {
+        return frozen;
+    }
+
+    /**
+     * Copy type descriptions to a new modifiable codec, e.g. to add types to a frozen codec. Caches are not copied.
+     */
+    Codec copy() {
+        Codec copy = new Codec();
+        copy.typeDescriptions.putAll(typeDescriptions);
+        copy.compiledParsers = compiledParsers;
+        return copy;
+    }
+
+    private void checkNotFrozen() {
+        if (frozen) {
+            throw new IllegalStateException("Codec is frozen");
+        }
+    }
+
     public void addStructType(String typeName, String fieldsListStr) {
+        checkNotFrozen();
         var fieldsStr = fieldsListStr.split(";");
         var fields = new StructType.Field[fieldsStr.length];
         for (int i = 0; i < fieldsStr.length; i++) {
@@ -35,9 +89,23 @@ public class Codec {
         }
         StructType structType = new StructType(typeName, fields);
         typeDescriptions.put(typeName, structType);
+        // New type may change resolution of types and parsers of structs referring to it
+        typeCache.clear();
+        parserCache.clear();
     }
 
     public Type getTypeDescription(String typeName) {
+        Type type = typeCache.get(typeName);
+        if (type == null) {
+            type = resolveType(typeName);
+            if (type != null) {
+                typeCache.put(typeName, type);
+            }
+        }
+        return type;
+    }
+
+    private Type resolveType(String typeName) {
         if (typeName.endsWith("]")) {
             // Array or vector typeName
             int idx = typeName.indexOf('[');
@@ -71,6 +139,17 @@ public class Codec {
     }
 
     public Parser getValueParser(Type descr) {
+        Parser parser = parserCache.get(descr.getTypeName());
+        if (parser == null) {
+            parser = createValueParser(descr);
+            if (parser != null) {
+                parserCache.put(descr.getTypeName(), parser);
+            }
+        }
+        return parser;
+    }
+
+    private Parser createValueParser(Type descr) {
         return switch (descr.getTypeClass()) {
             case SCALAR -> getScalarParser(descr.getTypeName());
             case ENUM -> getScalarParser(((EnumType) descr).getBaseType());
@@ -88,6 +167,13 @@ public class Codec {
 
             case STRUCT -> {
                 StructType structDescr = (StructType) descr;
+                if (compiledParsers) {
+                    try {
+                        yield new CompiledStructParser(this, structDescr);
+                    } catch (IllegalArgumentException ignored) {
+                        // Struct contains unknown types, use interpreted parser
+                    }
+                }
                 Parser[] fields = new Parser[structDescr.getFields().length];
                 for (int i = 0; i < structDescr.getFields().length; i++) {
                     var field = structDescr.getFields()[i];
@@ -99,6 +185,96 @@ public class Codec {
         };
     }
 
+    /**
+     * Get size of the value if it's the same for all values of the type, i.e. type doesn't contain vectors, strings
+     * or bytes.
+     *
+     * @return size in bytes or -1 if size is variable
+     */
+    public int getFixedSize(Type descr) {
+        if (descr == null) {
+            return -1;
+        }
+        return switch (descr.getTypeClass()) {
+            case SCALAR -> getScalarSize(descr.getTypeName());
+            case ENUM -> getScalarSize(((EnumType) descr).getBaseType());
+            case BITSET -> getScalarSize(((BitsetType) descr).getBaseType());
+            case ARRAY -> {
+                ArrayType arrDescr = (ArrayType) descr;
+                int elSize = getFixedSize(getTypeDescription(arrDescr.getElementType()));
+                yield elSize < 0 ? -1 : elSize * arrDescr.getSize();
+            }
+            case STRUCT -> {
+                int size = 0;
+                for (var field : ((StructType) descr).getFields()) {
+                    int fieldSize = getFixedSize(getTypeDescription(field.typeName()));
+                    if (fieldSize < 0) {
+                        yield -1;
+                    }
+                    size += fieldSize;
+                }
+                yield size;
+            }
+            default -> -1;
+        };
+    }
+
+    /**
+     * Get skipper that finds end of the value without parsing it.
+     */
+    Skipper getSkipper(Type descr) {
+        int size = getFixedSize(descr);
+        if (size >= 0) {
+            return (b, offset) -> offset + size;
+        }
+        return switch (descr.getTypeClass()) {
+            case STRING, BYTES -> (b, offset) -> offset + 4 + b.getInt(offset);
+            case VECTOR -> {
+                Type elDescr = getTypeDescription(((VectorType) descr).getElementType());
+                int elSize = getFixedSize(elDescr);
+                if (elSize >= 0) {
+                    yield (b, offset) -> offset + 4 + b.getInt(offset) * elSize;
+                }
+                Skipper elSkipper = getSkipper(elDescr);
+                yield (b, offset) -> {
+                    int n = b.getInt(offset);
+                    int o = offset + 4;
+                    for (int i = 0; i < n; i++) {
+                        o = elSkipper.skip(b, o);
+                    }
+                    return o;
+                };
+            }
+            case ARRAY -> {
+                ArrayType arrDescr = (ArrayType) descr;
+                Skipper elSkipper = getSkipper(getTypeDescription(arrDescr.getElementType()));
+                int n = arrDescr.getSize();
+                yield (b, offset) -> {
+                    int o = offset;
+                    for (int i = 0; i < n; i++) {
+                        o = elSkipper.skip(b, o);
+                    }
+                    return o;
+                };
+            }
+            case STRUCT -> {
+                var fields = ((StructType) descr).getFields();
+                Skipper[] fieldSkippers = new Skipper[fields.length];
+                for (int i = 0; i < fields.length; i++) {
+                    fieldSkippers[i] = getSkipper(getTypeDescription(fields[i].typeName()));
+                }
+                yield (b, offset) -> {
+                    int o = offset;
+                    for (Skipper fieldSkipper : fieldSkippers) {
+                        o = fieldSkipper.skip(b, o);
+                    }
+                    return o;
+                };
+            }
+            default -> throw new RuntimeException("Unsupported type: " + descr.getTypeName());
+        };
+    }
+
     Type getBuildInTypeDescription(String typeName) {
         return switch (typeName) {
             case "float", "float32" -> new Type("float32", TypeClass.SCALAR);
@@ -119,20 +295,22 @@ public class Codec {
     }
 
     static Parser getScalarParser(String type) {
-        return switch (type) {
-            case "float32" -> ByteBuffer::getFloat;
-            case "float64" -> ByteBuffer::getDouble;
-            case "int8" -> b -> (int) b.get();
-            case "bool" -> b -> b.get() != 0;
-            case "uint8" -> b -> b.get() & 0xFF;
-            case "int16" -> b -> (int) b.getShort();
-            case "uint16" -> b -> b.getShort() & 0xFFFF;
-            case "int32" -> ByteBuffer::getInt;
-            case "uint32" -> b -> b.getInt() & 0xFFFFFFFFL;
-            case "int64", "uint64" -> ByteBuffer::getLong;
-            default -> (b) -> {
+        Scalar scalar = Scalar.of(type);
+        if (scalar == null) {
+            return (b) -> {
                 throw new RuntimeException("Unsupported scalar type: " + type);
             };
+        }
+        return new ScalarParser(scalar);
+    }
+
+    static int getScalarSize(String type) {
+        return switch (type) {
+            case "int8", "uint8", "bool" -> 1;
+            case "int16", "uint16" -> 2;
+            case "float32", "int32", "uint32" -> 4;
+            case "float64", "int64", "uint64" -> 8;
+            default -> -1;
         };
     }
 
@@ -0,0 +1,292 @@
+package com.microavia.jmalib.log.ulog;
+
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.LongBuffer;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Time series of a single scalar field stored in primitive array or, if read from columnar cache, in memory mapped
+ * buffer. Floating point fields are stored as float or double, all integer types and booleans are stored as long.
+ * Missing values, e.g. vector elements out of vector size or fields of truncated messages, are stored as NaN or 0
+ * and marked as invalid, see {@link #isValid(int)}.
+ */
+public class Column {
+    public enum Kind {
+        FLOAT,
+        DOUBLE,
+        LONG
+    }
+
+    private final String path;
+    private final String typeName;
+    private final Kind kind;
+    private float[] floats = null;
+    private double[] doubles = null;
+    private long[] longs = null;
+    private int size = 0;
+    // Values in little endian buffer starting at 0, if column is backed by buffer
+    private ByteBuffer data = null;
+    // Indices of missing values, null if all values are valid
+    private BitSet invalid = null;
+
+    Column(String path, String typeName, Kind kind) {
+        this.path = path;
+        this.typeName = typeName;
+        this.kind = kind;
+        switch (kind) {
+            case FLOAT -> floats = new float[64];
+            case DOUBLE -> doubles = new double[64];
+            case LONG -> longs = new long[64];
+        }
+    }
+
+    /**
+     * Create column backed by buffer.
+     *
+     * @param data    values of the column, little endian, starting at 0
+     * @param invalid indices of missing values or null if all values are valid
+     */
+    Column(String path, String typeName, Kind kind, ByteBuffer data, int size, BitSet invalid) {
+        this.path = path;
+        this.typeName = typeName;
+        this.kind = kind;
+        this.data = data;
+        this.size = size;
+        this.invalid = invalid;
+    }
+
+    static int getWidth(Kind kind) {
+        return kind == Kind.FLOAT ? 4 : 8;
+    }
+
+    static Kind getKind(Scalar scalar) {
+        return switch (scalar) {
+            case FLOAT32 -> Kind.FLOAT;
+            case FLOAT64 -> Kind.DOUBLE;
+            default -> Kind.LONG;
+        };
+    }
+
+    /**
+     * Get full path of the field, e.g. "ATTITUDE_POSITION.alt_el".
+     */
+    public String getPath() {
+        return path;
+    }
+
+    public String getTypeName() {
+        return typeName;
+    }
+
+    public Kind getKind() {
+        return kind;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Check if column is backed by memory mapped buffer, not by array.
+     */
+    public boolean isMapped() {
+        return data != null;
+    }
+
+    /**
+     * Get values of {@link Kind#FLOAT} column. Returned array may be larger than number of values. Values of
+     * mapped column are copied to heap on first call, use {@link #getFloatBuffer()} to avoid copying.
+     *
+     * @return values array or null if column is of another kind
+     */
+    public float[] getFloats() {
+        if (data != null && floats == null && kind == Kind.FLOAT) {
+            floats = new float[size];
+            getFloatBuffer().get(floats);
+        }
+        return floats;
+    }
+
+    /**
+     * Get values of {@link Kind#DOUBLE} column. Returned array may be larger than number of values. Values of
+     * mapped column are copied to heap on first call, use {@link #getDoubleBuffer()} to avoid copying.
+     *
+     * @return values array or null if column is of another kind
+     */
+    public double[] getDoubles() {
+        if (data != null && doubles == null && kind == Kind.DOUBLE) {
+            doubles = new double[size];
+            getDoubleBuffer().get(doubles);
+        }
+        return doubles;
+    }
+
+    /**
+     * Get values of {@link Kind#LONG} column. Returned array may be larger than number of values. Values of
+     * mapped column are copied to heap on first call, use {@link #getLongBuffer()} to avoid copying.
+     *
+     * @return values array or null if column is of another kind
+     */
+    public long[] getLongs() {
+        if (data != null && longs == null && kind == Kind.LONG) {
+            longs = new long[size];
+            getLongBuffer().get(longs);
+        }
+        return longs;
+    }
+
+    /**
+     * Get read-only view of values of {@link Kind#FLOAT} column, limited to number of values.
+     *
+     * @return values buffer or null if column is of another kind
+     */
+    public FloatBuffer getFloatBuffer() {
+        if (kind != Kind.FLOAT) {
+            return null;
+        }
+        return data != null ? data.asFloatBuffer().asReadOnlyBuffer() : FloatBuffer.wrap(floats, 0, size).asReadOnlyBuffer();
+    }
+
+    /**
+     * Get read-only view of values of {@link Kind#DOUBLE} column, limited to number of values.
+     *
+     * @return values buffer or null if column is of another kind
+     */
+    public DoubleBuffer getDoubleBuffer() {
+        if (kind != Kind.DOUBLE) {
+            return null;
+        }
+        return data != null ? data.asDoubleBuffer().asReadOnlyBuffer() : DoubleBuffer.wrap(doubles, 0, size).asReadOnlyBuffer();
+    }
+
+    /**
+     * Get read-only view of values of {@link Kind#LONG} column, limited to number of values.
+     *
+     * @return values buffer or null if column is of another kind
+     */
+    public LongBuffer getLongBuffer() {
+        if (kind != Kind.LONG) {
+            return null;
+        }
+        return data != null ? data.asLongBuffer().asReadOnlyBuffer() : LongBuffer.wrap(longs, 0, size).asReadOnlyBuffer();
+    }
+
+    /**
+     * Check if value is present in the message, missing values are NaN in floating point columns and 0 in
+     * {@link Kind#LONG} columns.
+     */
+    public boolean isValid(int idx) {
+        return invalid == null || !invalid.get(idx);
+    }
+
+    /**
+     * @return indices of missing values or null if all values are valid
+     */
+    BitSet getInvalid() {
+        return invalid;
+    }
+
+    public double getDouble(int idx) {
+        if (data != null) {
+            return switch (kind) {
+                case FLOAT -> data.getFloat(idx << 2);
+                case DOUBLE -> data.getDouble(idx << 3);
+                case LONG -> data.getLong(idx << 3);
+            };
+        }
+        return switch (kind) {
+            case FLOAT -> floats[idx];
+            case DOUBLE -> doubles[idx];
+            case LONG -> longs[idx];
+        };
+    }
+
+    public long getLong(int idx) {
+        if (data != null) {
+            return switch (kind) {
+                case FLOAT -> (long) data.getFloat(idx << 2);
+                case DOUBLE -> (long) data.getDouble(idx << 3);
+                case LONG -> data.getLong(idx << 3);
+            };
+        }
+        return switch (kind) {
+            case FLOAT -> (long) floats[idx];
+            case DOUBLE -> (long) doubles[idx];
+            case LONG -> longs[idx];
+        };
+    }
+
+    void add(double value, long longValue) {
+        switch (kind) {
+            case FLOAT -> {
+                if (size == floats.length) {
+                    floats = Arrays.copyOf(floats, size * 2);
+                }
+                floats[size] = (float) value;
+            }
+            case DOUBLE -> {
+                if (size == doubles.length) {
+                    doubles = Arrays.copyOf(doubles, size * 2);
+                }
+                doubles[size] = value;
+            }
+            case LONG -> {
+                if (size == longs.length) {
+                    longs = Arrays.copyOf(longs, size * 2);
+                }
+                longs[size] = longValue;
+            }
+        }
+        size++;
+    }
+
+    /**
+     * Add missing value.
+     */
+    void addInvalid() {
+        if (invalid == null) {
+            invalid = new BitSet();
+        }
+        invalid.set(size);
+        add(Double.NaN, 0);
+    }
+
+    /**
+     * Append all values of another column of the same kind.
+     */
+    void append(Column other) {
+        int newSize = size + other.size;
+        switch (kind) {
+            case FLOAT -> {
+                if (newSize > floats.length) {
+                    floats = Arrays.copyOf(floats, newSize);
+                }
+                System.arraycopy(other.floats, 0, floats, size, other.size);
+            }
+            case DOUBLE -> {
+                if (newSize > doubles.length) {
+                    doubles = Arrays.copyOf(doubles, newSize);
+                }
+                System.arraycopy(other.doubles, 0, doubles, size, other.size);
+            }
+            case LONG -> {
+                if (newSize > longs.length) {
+                    longs = Arrays.copyOf(longs, newSize);
+                }
+                System.arraycopy(other.longs, 0, longs, size, other.size);
+            }
+        }
+        if (other.invalid != null) {
+            if (invalid == null) {
+                invalid = new BitSet();
+            }
+            for (int i = other.invalid.nextSetBit(0); i >= 0; i = other.invalid.nextSetBit(i + 1)) {
+                invalid.set(size + i);
+            }
+        }
+        size = newSize;
+    }
+}
@@ -0,0 +1,445 @@
+package com.microavia.jmalib.log.ulog;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * Columnar cache of the log: scalar fields stored as contiguous little endian typed columns with timestamps of
+ * their topic instances. Stored to a sidecar file next to the log, columns are read via memory mapping without
+ * parsing and copying to heap. Every column is mapped separately on first request, so cache of a large log is not
+ * limited by max size of a single mapping. Cache is written chunk by chunk, see {@link Writer}.
+ * <p>
+ * File layout: header with position of the directory, then column data aligned to 8 bytes, then the directory of
+ * topics, fields and positions of timestamps and values of every topic instance, with indices of missing values.
+ */
+class ColumnCache {
+    private static final int MAGIC = 0x554C4743;    // "ULGC"
+    private static final int FORMAT_VERSION = 2;
+    private static final int HEADER_SIZE = 32;
+    private static final int WRITE_BUFFER_SIZE = 1 << 16;
+
+    private record FieldInfo(String path, String typeName, Column.Kind kind) {
+    }
+
+    private record SetInfo(int multiId, int size, long timestampsOffset, long[] offsets, BitSet[] invalid) {
+    }
+
+    private record TopicInfo(String topicName, List<FieldInfo> fields, List<SetInfo> sets) {
+    }
+
+    private final Path cachePath;
+    private final Map<String, TopicInfo> topics = new LinkedHashMap<>();
+    private final Map<String, Integer> fieldIndex = new HashMap<>();
+    // Mapped regions by offset, guarded by itself
+    private final Map<Long, ByteBuffer> mapped = new HashMap<>();
+
+    private ColumnCache(Path cachePath) {
+        this.cachePath = cachePath;
+    }
+
+    static Path getCachePath(Path logPath) {
+        return logPath.resolveSibling(logPath.getFileName() + ".columns");
+    }
+
+    /**
+     * Load directory of the cache file of the log if it exists and matches size and modification time of the log.
+     *
+     * @return cache or null if cache file doesn't exist, invalid or outdated
+     */
+    static ColumnCache load(Path logPath) {
+        Path cachePath = getCachePath(logPath);
+        if (!Files.isRegularFile(cachePath)) {
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(cachePath, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            while (header.hasRemaining()) {
+                if (channel.read(header) < 0) {
+                    return null;
+                }
+            }
+            header.flip();
+            if (header.getInt() != MAGIC || header.getInt() != FORMAT_VERSION) {
+                return null;
+            }
+            if (header.getLong() != Files.size(logPath) || header.getLong() != Files.getLastModifiedTime(logPath).toMillis()) {
+                return null;
+            }
+            long directoryOffset = header.getLong();
+            if (directoryOffset < HEADER_SIZE || directoryOffset > channel.size()) {
+                return null;
+            }
+            var cache = new ColumnCache(cachePath);
+            channel.position(directoryOffset);
+            var in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+            long fileSize = channel.size();
+            int topicsNum = readLength(in, 10, fileSize);
+            for (int i = 0; i < topicsNum; i++) {
+                String topicName = in.readUTF();
+                List<FieldInfo> fields = new ArrayList<>();
+                int fieldsNum = readLength(in, 5, fileSize);
+                for (int j = 0; j < fieldsNum; j++) {
+                    String path = in.readUTF();
+                    String typeName = in.readUTF();
+                    int kindId = in.readUnsignedByte();
+                    if (kindId >= Column.Kind.values().length) {
+                        return null;
+                    }
+                    var field = new FieldInfo(path, typeName, Column.Kind.values()[kindId]);
+                    fields.add(field);
+                    cache.fieldIndex.put(field.path(), j);
+                }
+                List<SetInfo> sets = new ArrayList<>();
+                int setsNum = readLength(in, 16, fileSize);
+                for (int j = 0; j < setsNum; j++) {
+                    int multiId = in.readInt();
+                    int size = readLength(in, 8, fileSize);
+                    long timestampsOffset = in.readLong();
+                    if (!isRegionValid(timestampsOffset, size * 8L, directoryOffset)) {
+                        return null;
+                    }
+                    long[] offsets = new long[fieldsNum];
+                    BitSet[] invalid = new BitSet[fieldsNum];
+                    for (int k = 0; k < fieldsNum; k++) {
+                        offsets[k] = in.readLong();
+                        if (!isRegionValid(offsets[k], (long) size * Column.getWidth(fields.get(k).kind()), directoryOffset)) {
+                            return null;
+                        }
+                        int invalidNum = readLength(in, 4, fileSize);
+                        for (int r = 0; r < invalidNum; r++) {
+                            int row = in.readInt();
+                            if (row < 0 || row >= size) {
+                                return null;
+                            }
+                            if (invalid[k] == null) {
+                                invalid[k] = new BitSet();
+                            }
+                            invalid[k].set(row);
+                        }
+                    }
+                    sets.add(new SetInfo(multiId, size, timestampsOffset, offsets, invalid));
+                }
+                cache.topics.put(topicName, new TopicInfo(topicName, fields, sets));
+            }
+            return cache;
+        } catch (IOException | RuntimeException e) {
+            // Corrupted cache is rebuilt
+            return null;
+        }
+    }
+
+    /**
+     * Read number of items, items of the given min size must fit in the cache file.
+     *
+     * @throws IOException if number is invalid
+     */
+    private static int readLength(DataInputStream in, int itemSize, long fileSize) throws IOException {
+        int n = in.readInt();
+        if (n < 0 || (long) n * itemSize > fileSize) {
+            throw new IOException("Invalid length: " + n);
+        }
+        return n;
+    }
+
+    private static boolean isRegionValid(long offset, long size, long directoryOffset) {
+        return offset >= HEADER_SIZE && offset <= directoryOffset - size;
+    }
+
+    /**
+     * Check if all fields are stored in the cache.
+     */
+    boolean contains(Collection<String> fieldPaths) {
+        return fieldIndex.keySet().containsAll(fieldPaths);
+    }
+
+    /**
+     * Get columns of fields backed by mapped cache file, result is the same as of
+     * {@link ULogReader#readColumns(Collection)}.
+     *
+     * @param fieldPaths full paths of fields stored in the cache
+     * @return column sets by topic name and multi instance id
+     */
+    Map<String, Map<Integer, ColumnSet>> getColumns(Collection<String> fieldPaths) throws IOException {
+        Map<String, List<String>> pathsByTopic = new LinkedHashMap<>();
+        for (String path : new LinkedHashSet<>(fieldPaths)) {
+            pathsByTopic.computeIfAbsent(path.substring(0, path.indexOf('.')), t -> new ArrayList<>()).add(path);
+        }
+        Map<String, Map<Integer, ColumnSet>> res = new LinkedHashMap<>();
+        try (FileChannel channel = FileChannel.open(cachePath, StandardOpenOption.READ)) {
+            for (var entry : pathsByTopic.entrySet()) {
+                TopicInfo topic = topics.get(entry.getKey());
+                Map<Integer, ColumnSet> sets = new TreeMap<>();
+                for (SetInfo setInfo : topic.sets()) {
+                    var set = new ColumnSet(topic.topicName(), setInfo.multiId(),
+                            map(channel, setInfo.timestampsOffset(), setInfo.size() * 8L), setInfo.size());
+                    for (String path : entry.getValue()) {
+                        int idx = fieldIndex.get(path);
+                        FieldInfo field = topic.fields().get(idx);
+                        long length = (long) setInfo.size() * Column.getWidth(field.kind());
+                        set.addColumn(new Column(path, field.typeName(), field.kind(),
+                                map(channel, setInfo.offsets()[idx], length), setInfo.size(), setInfo.invalid()[idx]));
+                    }
+                    sets.put(setInfo.multiId(), set);
+                }
+                res.put(entry.getKey(), sets);
+            }
+        }
+        return res;
+    }
+
+    /**
+     * Map region of the cache file, mapped regions are reused. Mapping remains valid after channel is closed.
+     */
+    private ByteBuffer map(FileChannel channel, long offset, long length) throws IOException {
+        ByteBuffer buffer;
+        synchronized (mapped) {
+            buffer = mapped.get(offset);
+            if (buffer == null) {
+                buffer = channel.map(FileChannel.MapMode.READ_ONLY, offset, length);
+                mapped.put(offset, buffer);
+            }
+        }
+        // Separate view for every column, position and limit of shared buffer are not modified
+        return buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Writer of the cache file. Space for columns of every topic instance is reserved by the number of messages
+     * found in the log, then columns decoded from consecutive chunks of the log are appended to their regions, so
+     * the whole log is never decoded in memory. File is written to temporary file and renamed on commit, so
+     * concurrent readers never see partially written cache.
+     */
+    static class Writer implements Closeable {
+        private static class SetRegions {
+            final int multiId;
+            final int capacity;
+            final long timestampsOffset;
+            final long[] offsets;
+            // Indices of missing values by field, null if all values are valid
+            final BitSet[] invalid;
+            int size = 0;
+
+            SetRegions(int multiId, int capacity, long timestampsOffset, long[] offsets) {
+                this.multiId = multiId;
+                this.capacity = capacity;
+                this.timestampsOffset = timestampsOffset;
+                this.offsets = offsets;
+                this.invalid = new BitSet[offsets.length];
+            }
+        }
+
+        private record TopicRegions(String topicName, List<FieldInfo> fields, Map<Integer, SetRegions> sets) {
+        }
+
+        private final Path logPath;
+        private final Path cachePath;
+        private final Path tmpPath;
+        private final FileChannel channel;
+        private final Map<String, TopicRegions> topics = new LinkedHashMap<>();
+        private final ByteBuffer buffer = ByteBuffer.allocate(WRITE_BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        private final long directoryOffset;
+        private boolean committed = false;
+
+        /**
+         * @param fieldPaths full paths of scalar fields to store
+         * @param fieldTypes type names by field path, as returned by {@link ULogReader#getFields()}
+         * @param counts     max number of messages by topic name and multi instance id
+         */
+        Writer(Path logPath, Collection<String> fieldPaths, Map<String, String> fieldTypes,
+               Map<String, Map<Integer, Integer>> counts) throws IOException {
+            this.logPath = logPath;
+            for (String path : fieldPaths) {
+                String topicName = path.substring(0, path.indexOf('.'));
+                String typeName = fieldTypes.get(path);
+                topics.computeIfAbsent(topicName, t -> new TopicRegions(t, new ArrayList<>(), new TreeMap<>()))
+                        .fields().add(new FieldInfo(path, typeName, Column.getKind(Scalar.of(typeName))));
+            }
+            // Reserve regions for timestamps and columns of every instance, aligned to 8 bytes
+            long offset = HEADER_SIZE;
+            for (TopicRegions topic : topics.values()) {
+                var topicCounts = new TreeMap<>(counts.getOrDefault(topic.topicName(), Map.of()));
+                for (var entry : topicCounts.entrySet()) {
+                    int capacity = entry.getValue();
+                    long timestampsOffset = offset;
+                    offset = align(timestampsOffset + capacity * 8L);
+                    long[] offsets = new long[topic.fields().size()];
+                    for (int k = 0; k < offsets.length; k++) {
+                        offsets[k] = offset;
+                        offset = align(offset + (long) capacity * Column.getWidth(topic.fields().get(k).kind()));
+                    }
+                    topic.sets().put(entry.getKey(), new SetRegions(entry.getKey(), capacity, timestampsOffset, offsets));
+                }
+            }
+            directoryOffset = offset;
+            cachePath = getCachePath(logPath).toAbsolutePath();
+            tmpPath = Files.createTempFile(cachePath.getParent(), cachePath.getFileName().toString(), ".tmp");
+            channel = FileChannel.open(tmpPath, StandardOpenOption.WRITE);
+        }
+
+        private static long align(long offset) {
+            return (offset + 7) & ~7L;
+        }
+
+        /**
+         * Append columns decoded from the next chunk of the log.
+         *
+         * @param columns columns by topic name and multi instance id, as returned by {@link ULogReader#readColumns}
+         * @throws IOException if chunk contains more messages than reserved
+         */
+        void write(Map<String, Map<Integer, ColumnSet>> columns) throws IOException {
+            for (var entry : columns.entrySet()) {
+                TopicRegions topic = topics.get(entry.getKey());
+                if (topic == null) {
+                    continue;
+                }
+                for (ColumnSet set : entry.getValue().values()) {
+                    SetRegions regions = topic.sets().get(set.getMultiId());
+                    int n = set.size();
+                    if (regions == null || regions.size + n > regions.capacity) {
+                        throw new IOException("Number of messages exceeds reserved space: " + entry.getKey());
+                    }
+                    writeLongs(regions.timestampsOffset + regions.size * 8L, set.getTimestamps(), n);
+                    for (int k = 0; k < regions.offsets.length; k++) {
+                        FieldInfo field = topic.fields().get(k);
+                        Column column = set.getColumn(field.path());
+                        long position = regions.offsets[k] + (long) regions.size * Column.getWidth(field.kind());
+                        switch (field.kind()) {
+                            case FLOAT -> writeFloats(position, column.getFloats(), n);
+                            case DOUBLE -> writeDoubles(position, column.getDoubles(), n);
+                            case LONG -> writeLongs(position, column.getLongs(), n);
+                        }
+                        BitSet invalid = column.getInvalid();
+                        if (invalid != null) {
+                            if (regions.invalid[k] == null) {
+                                regions.invalid[k] = new BitSet();
+                            }
+                            for (int i = invalid.nextSetBit(0); i >= 0; i = invalid.nextSetBit(i + 1)) {
+                                regions.invalid[k].set(regions.size + i);
+                            }
+                        }
+                    }
+                    regions.size += n;
+                }
+            }
+        }
+
+        private void writeFloats(long position, float[] values, int size) throws IOException {
+            for (int i = 0; i < size; i++) {
+                if (buffer.remaining() < 4) {
+                    position = flush(position);
+                }
+                buffer.putFloat(values[i]);
+            }
+            flush(position);
+        }
+
+        private void writeDoubles(long position, double[] values, int size) throws IOException {
+            for (int i = 0; i < size; i++) {
+                if (buffer.remaining() < 8) {
+                    position = flush(position);
+                }
+                buffer.putDouble(values[i]);
+            }
+            flush(position);
+        }
+
+        private void writeLongs(long position, long[] values, int size) throws IOException {
+            for (int i = 0; i < size; i++) {
+                if (buffer.remaining() < 8) {
+                    position = flush(position);
+                }
+                buffer.putLong(values[i]);
+            }
+            flush(position);
+        }
+
+        /**
+         * Write buffered data at the position.
+         *
+         * @return position after written data
+         */
+        private long flush(long position) throws IOException {
+            buffer.flip();
+            position = writeFully(buffer, position);
+            buffer.clear();
+            return position;
+        }
+
+        /**
+         * Write all remaining bytes of the buffer at the position, positional write may write only a part of them.
+         *
+         * @return position after written data
+         */
+        private long writeFully(ByteBuffer src, long position) throws IOException {
+            while (src.hasRemaining()) {
+                position += channel.write(src, position);
+            }
+            return position;
+        }
+
+        /**
+         * Write directory and header and replace the cache file of the log.
+         */
+        void commit() throws IOException {
+            var directory = new ByteArrayOutputStream();
+            var dir = new DataOutputStream(directory);
+            dir.writeInt(topics.size());
+            for (TopicRegions topic : topics.values()) {
+                dir.writeUTF(topic.topicName());
+                dir.writeInt(topic.fields().size());
+                for (FieldInfo field : topic.fields()) {
+                    dir.writeUTF(field.path());
+                    dir.writeUTF(field.typeName());
+                    dir.writeByte(field.kind().ordinal());
+                }
+                dir.writeInt(topic.sets().size());
+                for (SetRegions regions : topic.sets().values()) {
+                    dir.writeInt(regions.multiId);
+                    dir.writeInt(regions.size);
+                    dir.writeLong(regions.timestampsOffset);
+                    for (int k = 0; k < regions.offsets.length; k++) {
+                        dir.writeLong(regions.offsets[k]);
+                        BitSet invalid = regions.invalid[k];
+                        dir.writeInt(invalid != null ? invalid.cardinality() : 0);
+                        if (invalid != null) {
+                            for (int i = invalid.nextSetBit(0); i >= 0; i = invalid.nextSetBit(i + 1)) {
+                                dir.writeInt(i);
+                            }
+                        }
+                    }
+                }
+            }
+            writeFully(ByteBuffer.wrap(directory.toByteArray()), directoryOffset);
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC);
+            header.putInt(FORMAT_VERSION);
+            header.putLong(Files.size(logPath));
+            header.putLong(Files.getLastModifiedTime(logPath).toMillis());
+            header.putLong(directoryOffset);
+            header.flip();
+            writeFully(header, 0);
+            channel.close();
+            Files.move(tmpPath, cachePath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            committed = true;
+        }
+
+        /**
+         * Close the writer, temporary file is deleted if not committed.
+         */
+        @Override
+        public void close() throws IOException {
+            channel.close();
+            if (!committed) {
+                Files.deleteIfExists(tmpPath);
+            }
+        }
+    }
+}
@@ -0,0 +1,184 @@
+package com.microavia.jmalib.log.ulog;
+
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * Extractor of values of scalar fields from raw data messages to columns, values are read directly from message
+ * bytes without decoding.
+ */
+class ColumnExtractor {
+    private static class TopicColumns {
+        final String topicName;
+        final List<String> paths = new ArrayList<>();
+        final List<Getter> getterList = new ArrayList<>();
+        Getter[] getters;
+        Scalar[] scalars;
+        Column.Kind[] kinds;
+        double[] doubleValues;
+        long[] longValues;
+        boolean[] valid;
+        final ColumnSet[] sets = new ColumnSet[128];
+        final Column[][] columns = new Column[128][];
+        final Map<Integer, ColumnSet> result = new TreeMap<>();
+
+        TopicColumns(String topicName) {
+            this.topicName = topicName;
+        }
+
+        void init() {
+            int n = getterList.size();
+            getters = getterList.toArray(new Getter[0]);
+            scalars = new Scalar[n];
+            kinds = new Column.Kind[n];
+            for (int i = 0; i < n; i++) {
+                scalars[i] = getters[i].getScalar();
+                kinds[i] = Column.getKind(scalars[i]);
+            }
+            doubleValues = new double[n];
+            longValues = new long[n];
+            valid = new boolean[n];
+        }
+
+        ColumnSet getColumnSet(int multiId) {
+            ColumnSet set = sets[multiId];
+            if (set == null) {
+                set = new ColumnSet(topicName, multiId);
+                Column[] cols = new Column[getters.length];
+                for (int i = 0; i < getters.length; i++) {
+                    cols[i] = new Column(paths.get(i), getters[i].getType().getTypeName(), kinds[i]);
+                    set.addColumn(cols[i]);
+                }
+                sets[multiId] = set;
+                columns[multiId] = cols;
+                result.put(multiId, set);
+            }
+            return set;
+        }
+    }
+
+    private final Map<String, TopicColumns> topicColumns = new LinkedHashMap<>();
+    private TopicColumns[] topicsById = new TopicColumns[0];
+
+    /**
+     * @param fieldPaths full paths of scalar fields, e.g. "ATTITUDE_POSITION.alt_el"
+     * @throws SubscriptionException if topic or field not found or field is not scalar
+     */
+    ColumnExtractor(Codec codec, Map<String, Topic> topicByName, Collection<String> fieldPaths) {
+        Map<String, Subscription> subscriptions = new HashMap<>();
+        for (String path : new LinkedHashSet<>(fieldPaths)) {
+            int idx = path.indexOf('.');
+            if (idx <= 0) {
+                throw new SubscriptionException("Invalid field path: " + path);
+            }
+            String topicName = path.substring(0, idx);
+            Topic topic = topicByName.get(topicName);
+            if (topic == null) {
+                throw new SubscriptionException("Topic not found: " + topicName);
+            }
+            var sub = subscriptions.computeIfAbsent(topicName,
+                    t -> new Subscription(codec, t, codec.getTypeDescription(topic.getTypeName()), DecodeMode.LAZY));
+            Getter getter = sub.createGetter(path.substring(idx + 1));
+            if (getter.getScalar() == null) {
+                throw new SubscriptionException("Field is not scalar: " + path);
+            }
+            var tc = topicColumns.get(topicName);
+            if (tc == null) {
+                tc = new TopicColumns(topicName);
+                topicColumns.put(topicName, tc);
+                if (topic.getId() >= topicsById.length) {
+                    topicsById = Arrays.copyOf(topicsById, topic.getId() + 1);
+                }
+                topicsById[topic.getId()] = tc;
+            }
+            tc.paths.add(path);
+            tc.getterList.add(getter);
+        }
+        for (var tc : topicColumns.values()) {
+            tc.init();
+        }
+    }
+
+    /**
+     * Extract values from data message.
+     *
+     * @param buffer    buffer containing the message
+     * @param base      offset of the message payload (after timestamp) in buffer
+     * @param end       offset of the end of the message in buffer
+     * @param msgId     topic id
+     * @param multiId   multi instance id with main instance flag
+     * @param timestamp message timestamp
+     */
+    void handleData(ByteBuffer buffer, int base, int end, int msgId, int multiId, long timestamp) {
+        if (msgId >= topicsById.length) {
+            return;
+        }
+        TopicColumns tc = topicsById[msgId];
+        if (tc == null) {
+            return;
+        }
+        // Read all values first, so columns are not misaligned if message is corrupted
+        var getters = tc.getters;
+        for (int i = 0; i < getters.length; i++) {
+            Getter getter = getters[i];
+            Scalar scalar = tc.scalars[i];
+            int offset = getter.fixedOffset >= 0 ? base + getter.fixedOffset : getter.offsetFunction.offset(buffer, base);
+            tc.valid[i] = offset >= 0 && offset + scalar.size <= end;
+            if (!tc.valid[i]) {
+                continue;
+            }
+            if (tc.kinds[i] == Column.Kind.LONG) {
+                tc.longValues[i] = scalar.getLong(buffer, offset);
+            } else {
+                tc.doubleValues[i] = scalar.getDouble(buffer, offset);
+            }
+        }
+        int instance = multiId & 0x7F;
+        tc.getColumnSet(instance).addTimestamp(timestamp);
+        Column[] cols = tc.columns[instance];
+        for (int i = 0; i < cols.length; i++) {
+            if (tc.valid[i]) {
+                cols[i].add(tc.doubleValues[i], tc.longValues[i]);
+            } else {
+                cols[i].addInvalid();
+            }
+        }
+    }
+
+    /**
+     * Get extracted columns.
+     *
+     * @return column sets by topic name and multi instance id
+     */
+    Map<String, Map<Integer, ColumnSet>> getColumns() {
+        Map<String, Map<Integer, ColumnSet>> res = new LinkedHashMap<>();
+        for (var tc : topicColumns.values()) {
+            res.put(tc.topicName, tc.result);
+        }
+        return res;
+    }
+
+    /**
+     * Merge columns of extractors of consecutive chunks of the log, values are concatenated in chunk order.
+     *
+     * @param extractors extractors created for the same field paths, in file order of chunks
+     * @return column sets by topic name and multi instance id
+     */
+    static Map<String, Map<Integer, ColumnSet>> merge(List<ColumnExtractor> extractors) {
+        Map<String, Map<Integer, ColumnSet>> res = new LinkedHashMap<>();
+        for (ColumnExtractor extractor : extractors) {
+            for (var entry : extractor.getColumns().entrySet()) {
+                var sets = res.computeIfAbsent(entry.getKey(), k -> new TreeMap<>());
+                for (ColumnSet set : entry.getValue().values()) {
+                    ColumnSet merged = sets.get(set.getMultiId());
+                    if (merged == null) {
+                        sets.put(set.getMultiId(), set);
+                    } else {
+                        merged.append(set);
+                    }
+                }
+            }
+        }
+        return res;
+    }
+}
@@ -0,0 +1,118 @@
+package com.microavia.jmalib.log.ulog;
+
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Columns of fields of one topic instance, all columns have the same size as timestamps array. Timestamps and
+ * columns read from columnar cache are backed by memory mapped buffers.
+ */
+public class ColumnSet {
+    private final String topicName;
+    private final int multiId;
+    private long[] timestamps;
+    private int size = 0;
+    // Timestamps in little endian buffer starting at 0, if backed by buffer
+    private ByteBuffer timestampsData = null;
+    private final Map<String, Column> columns = new LinkedHashMap<>();
+
+    ColumnSet(String topicName, int multiId) {
+        this.topicName = topicName;
+        this.multiId = multiId;
+        this.timestamps = new long[64];
+    }
+
+    /**
+     * Create column set with timestamps backed by buffer.
+     *
+     * @param timestampsData timestamps, little endian, starting at 0
+     */
+    ColumnSet(String topicName, int multiId, ByteBuffer timestampsData, int size) {
+        this.topicName = topicName;
+        this.multiId = multiId;
+        this.timestampsData = timestampsData;
+        this.size = size;
+    }
+
+    public String getTopicName() {
+        return topicName;
+    }
+
+    /**
+     * Get multi instance id, without main instance flag.
+     */
+    public int getMultiId() {
+        return multiId;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Get timestamps in us. Returned array may be larger than number of values. Timestamps backed by buffer are
+     * copied to heap on first call, use {@link #getTimestampBuffer()} to avoid copying.
+     */
+    public long[] getTimestamps() {
+        if (timestamps == null) {
+            timestamps = new long[size];
+            getTimestampBuffer().get(timestamps);
+        }
+        return timestamps;
+    }
+
+    /**
+     * Get read-only view of timestamps in us, limited to number of values.
+     */
+    public LongBuffer getTimestampBuffer() {
+        return timestampsData != null ? timestampsData.asLongBuffer().asReadOnlyBuffer() : LongBuffer.wrap(timestamps, 0, size).asReadOnlyBuffer();
+    }
+
+    public long getTimestamp(int idx) {
+        return timestampsData != null ? timestampsData.getLong(idx << 3) : timestamps[idx];
+    }
+
+    public Collection<Column> getColumns() {
+        return Collections.unmodifiableCollection(columns.values());
+    }
+
+    /**
+     * Get column by full field path.
+     *
+     * @return column or null if not found
+     */
+    public Column getColumn(String path) {
+        return columns.get(path);
+    }
+
+    void addColumn(Column column) {
+        columns.put(column.getPath(), column);
+    }
+
+    void addTimestamp(long timestamp) {
+        if (size == timestamps.length) {
+            timestamps = Arrays.copyOf(timestamps, size * 2);
+        }
+        timestamps[size++] = timestamp;
+    }
+
+    /**
+     * Append all values of another column set with the same columns.
+     */
+    void append(ColumnSet other) {
+        int newSize = size + other.size;
+        if (newSize > timestamps.length) {
+            timestamps = Arrays.copyOf(timestamps, newSize);
+        }
+        System.arraycopy(other.timestamps, 0, timestamps, size, other.size);
+        size = newSize;
+        for (Column column : columns.values()) {
+            column.append(other.columns.get(column.getPath()));
+        }
+    }
+}
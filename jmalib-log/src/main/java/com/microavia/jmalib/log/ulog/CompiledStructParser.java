@@ -0,0 +1,333 @@
+package com.microavia.jmalib.log.ulog;
+
+import com.microavia.jmalib.log.ulog.model.*;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.UndeclaredThrowableException;
+import java.nio.ByteBuffer;
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Struct parser compiled to a chain of method handles. Every struct type, including nested structs, arrays and
+ * vectors, is compiled to a handle that reads all fields in order with field indexes and scalar readers bound as
+ * constants, so parsing doesn't go through megamorphic {@link Parser#parse} calls. Handle of a hot parser is
+ * customized by the JVM and compiled to straight-line code. Arrays and vectors of scalars are decoded by tight
+ * loops specialized for element type. Produces the same values as tree of {@link StructParser},
+ * {@link ArrayParser} and {@link VectorParser}.
+ */
+class CompiledStructParser implements Parser {
+    /**
+     * (ByteBuffer buffer, Object reuse)Object, type of all compiled handles.
+     */
+    private static final MethodType PARSE_TYPE = MethodType.methodType(Object.class, ByteBuffer.class, Object.class);
+    /**
+     * (Object[] values, ByteBuffer buffer)void, type of handles parsing fields of a struct to values array.
+     */
+    private static final MethodType FIELDS_TYPE = MethodType.methodType(void.class, Object[].class, ByteBuffer.class);
+    private static final MethodHandle ARRAY_GET = MethodHandles.arrayElementGetter(Object[].class);
+    private static final MethodHandle ARRAY_SET = MethodHandles.arrayElementSetter(Object[].class);
+    private static final MethodHandle REUSE_ARRAY;
+    private static final MethodHandle PARSE_ITEMS;
+    private static final MethodHandle READ_SCALARS;
+    private static final MethodHandle PARSER_PARSE;
+    private static final Map<Scalar, MethodHandle> SCALAR_READERS = new EnumMap<>(Scalar.class);
+
+    static {
+        var lookup = MethodHandles.lookup();
+        try {
+            REUSE_ARRAY = lookup.findStatic(CompiledStructParser.class, "reuseArray",
+                    MethodType.methodType(Object[].class, Object.class, int.class));
+            PARSE_ITEMS = lookup.findStatic(CompiledStructParser.class, "parseItems",
+                    PARSE_TYPE.insertParameterTypes(0, MethodHandle.class, int.class));
+            READ_SCALARS = lookup.findStatic(CompiledStructParser.class, "readScalars",
+                    PARSE_TYPE.insertParameterTypes(0, Scalar.class, int.class));
+            PARSER_PARSE = lookup.findVirtual(Parser.class, "parse", PARSE_TYPE);
+            for (Scalar scalar : Scalar.values()) {
+                SCALAR_READERS.put(scalar, lookup.findStatic(CompiledStructParser.class, getReaderName(scalar), PARSE_TYPE));
+            }
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private final MethodHandle handle;
+
+    /**
+     * Compile parser for struct type.
+     *
+     * @throws IllegalArgumentException if struct contains unknown types
+     */
+    CompiledStructParser(Codec codec, StructType structType) {
+        this.handle = compile(codec, structType);
+    }
+
+    private static MethodHandle compile(Codec codec, Type descr) {
+        if (descr == null) {
+            throw new IllegalArgumentException("Unknown type");
+        }
+        switch (descr.getTypeClass()) {
+            case SCALAR, ENUM, BITSET -> {
+                Scalar scalar = getScalar(descr);
+                // Keep behavior of interpreted parser for unsupported types
+                return scalar != null ? SCALAR_READERS.get(scalar) : compileParser(codec.getValueParser(descr));
+            }
+            case STRUCT -> {
+                return compileStruct(codec, (StructType) descr);
+            }
+            case ARRAY, VECTOR -> {
+                String elementType;
+                int size;
+                if (descr instanceof ArrayType arrDescr) {
+                    elementType = arrDescr.getElementType();
+                    size = arrDescr.getSize();
+                } else {
+                    elementType = ((VectorType) descr).getElementType();
+                    // Size is read from the buffer
+                    size = -1;
+                }
+                Type elDescr = codec.getTypeDescription(elementType);
+                Scalar elScalar = elDescr == null ? null : getScalar(elDescr);
+                if (elScalar != null) {
+                    return MethodHandles.insertArguments(READ_SCALARS, 0, elScalar, size);
+                }
+                return MethodHandles.insertArguments(PARSE_ITEMS, 0, compile(codec, elDescr), size);
+            }
+            default -> {
+                return compileParser(codec.getValueParser(descr));
+            }
+        }
+    }
+
+    /**
+     * Compile struct to handle equivalent to:
+     * <pre>
+     * Object[] values = reuseArray(reuse, N);
+     * values[0] = field0(buffer, values[0]);
+     * ...
+     * values[N - 1] = fieldN_1(buffer, values[N - 1]);
+     * return values;
+     * </pre>
+     */
+    private static MethodHandle compileStruct(Codec codec, StructType structType) {
+        var fields = structType.getFields();
+        MethodHandle body = MethodHandles.empty(FIELDS_TYPE);
+        // Fields are prepended, so they are parsed in order
+        for (int i = fields.length - 1; i >= 0; i--) {
+            MethodHandle field = compileField(i, compile(codec, codec.getTypeDescription(fields[i].typeName())));
+            body = MethodHandles.foldArguments(body, field);
+        }
+        // (Object[] values, ByteBuffer buffer)Object[]
+        MethodHandle returnValues = MethodHandles.dropArguments(MethodHandles.identity(Object[].class), 1, ByteBuffer.class);
+        MethodHandle parseValues = MethodHandles.foldArguments(returnValues, body);
+        // (Object reuse, ByteBuffer buffer)Object
+        MethodHandle parseReused = MethodHandles.filterArguments(parseValues, 0,
+                        MethodHandles.insertArguments(REUSE_ARRAY, 1, fields.length))
+                .asType(MethodType.methodType(Object.class, Object.class, ByteBuffer.class));
+        return MethodHandles.permuteArguments(parseReused, PARSE_TYPE, 1, 0);
+    }
+
+    /**
+     * Compile parsing of struct field to handle equivalent to {@code values[idx] = parser(buffer, values[idx])}.
+     */
+    private static MethodHandle compileField(int idx, MethodHandle parser) {
+        // (ByteBuffer buffer, Object[] values)Object
+        MethodHandle parseField = MethodHandles.filterArguments(parser, 1, MethodHandles.insertArguments(ARRAY_GET, 1, idx));
+        // (Object[] values, ByteBuffer buffer, Object[] values)void
+        MethodHandle setField = MethodHandles.collectArguments(MethodHandles.insertArguments(ARRAY_SET, 1, idx), 1, parseField);
+        return MethodHandles.permuteArguments(setField, FIELDS_TYPE, 0, 1, 0);
+    }
+
+    private static MethodHandle compileParser(Parser parser) {
+        if (parser == null) {
+            throw new IllegalArgumentException("No parser");
+        }
+        return PARSER_PARSE.bindTo(parser);
+    }
+
+    private static Scalar getScalar(Type descr) {
+        return switch (descr.getTypeClass()) {
+            case SCALAR -> Scalar.of(descr.getTypeName());
+            case ENUM -> Scalar.of(((EnumType) descr).getBaseType());
+            case BITSET -> Scalar.of(((BitsetType) descr).getBaseType());
+            default -> null;
+        };
+    }
+
+    private static String getReaderName(Scalar scalar) {
+        return switch (scalar) {
+            case FLOAT32 -> "readFloat32";
+            case FLOAT64 -> "readFloat64";
+            case INT8 -> "readInt8";
+            case BOOL -> "readBool";
+            case UINT8 -> "readUInt8";
+            case INT16 -> "readInt16";
+            case UINT16 -> "readUInt16";
+            case INT32 -> "readInt32";
+            case UINT32 -> "readUInt32";
+            case INT64, UINT64 -> "readInt64";
+        };
+    }
+
+    @Override
+    public Object parse(ByteBuffer buffer) {
+        return invoke(buffer, null);
+    }
+
+    /**
+     * Parse reusing arrays of the previous value. Boxed scalars of the previous value are also kept if value is
+     * not changed, so slowly changing fields don't produce garbage.
+     */
+    @Override
+    public Object parse(ByteBuffer buffer, Object reuse) {
+        return invoke(buffer, reuse);
+    }
+
+    private Object invoke(ByteBuffer buffer, Object reuse) {
+        try {
+            return (Object) handle.invokeExact(buffer, reuse);
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new UndeclaredThrowableException(e);
+        }
+    }
+
+    /**
+     * Get array of specified size, previous value is reused if it has the same size, otherwise its elements are
+     * copied to the new array to be reused.
+     */
+    private static Object[] reuseArray(Object reuse, int size) {
+        if (reuse instanceof Object[] arr) {
+            if (arr.length == size) {
+                return arr;
+            }
+            Object[] items = new Object[size];
+            System.arraycopy(arr, 0, items, 0, Math.min(arr.length, size));
+            return items;
+        }
+        return new Object[size];
+    }
+
+    /**
+     * Parse array or vector of non-scalar elements.
+     *
+     * @param element handle parsing element
+     * @param size    array size or -1 for vector, size of vector is read from the buffer
+     */
+    private static Object parseItems(MethodHandle element, int size, ByteBuffer buffer, Object reuse) throws Throwable {
+        Object[] items = reuseArray(reuse, size >= 0 ? size : buffer.getInt());
+        for (int i = 0; i < items.length; i++) {
+            items[i] = (Object) element.invokeExact(buffer, items[i]);
+        }
+        return items;
+    }
+
+    // Scalar readers, same as ScalarParser.parse(buffer, reuse), but monomorphic to be inlined in the chain
+
+    private static Object readFloat32(ByteBuffer buffer, Object old) {
+        return ScalarParser.boxFloat(buffer.getFloat(), old);
+    }
+
+    private static Object readFloat64(ByteBuffer buffer, Object old) {
+        return ScalarParser.boxDouble(buffer.getDouble(), old);
+    }
+
+    private static Object readInt8(ByteBuffer buffer, Object old) {
+        // All int8 values are cached by boxing
+        return (int) buffer.get();
+    }
+
+    private static Object readBool(ByteBuffer buffer, Object old) {
+        return buffer.get() != 0;
+    }
+
+    private static Object readUInt8(ByteBuffer buffer, Object old) {
+        return ScalarParser.boxInt(buffer.get() & 0xFF, old);
+    }
+
+    private static Object readInt16(ByteBuffer buffer, Object old) {
+        return ScalarParser.boxInt(buffer.getShort(), old);
+    }
+
+    private static Object readUInt16(ByteBuffer buffer, Object old) {
+        return ScalarParser.boxInt(buffer.getShort() & 0xFFFF, old);
+    }
+
+    private static Object readInt32(ByteBuffer buffer, Object old) {
+        return ScalarParser.boxInt(buffer.getInt(), old);
+    }
+
+    private static Object readUInt32(ByteBuffer buffer, Object old) {
+        return ScalarParser.boxLong(buffer.getInt() & 0xFFFFFFFFL, old);
+    }
+
+    private static Object readInt64(ByteBuffer buffer, Object old) {
+        return ScalarParser.boxLong(buffer.getLong(), old);
+    }
+
+    /**
+     * Parse array or vector of scalars by loop specialized for element type.
+     *
+     * @param size array size or -1 for vector, size of vector is read from the buffer
+     */
+    private static Object readScalars(Scalar scalar, int size, ByteBuffer buffer, Object reuse) {
+        Object[] items = reuseArray(reuse, size >= 0 ? size : buffer.getInt());
+        int n = items.length;
+        switch (scalar) {
+            case FLOAT32 -> {
+                for (int i = 0; i < n; i++) {
+                    items[i] = readFloat32(buffer, items[i]);
+                }
+            }
+            case FLOAT64 -> {
+                for (int i = 0; i < n; i++) {
+                    items[i] = readFloat64(buffer, items[i]);
+                }
+            }
+            case INT8 -> {
+                for (int i = 0; i < n; i++) {
+                    items[i] = readInt8(buffer, items[i]);
+                }
+            }
+            case BOOL -> {
+                for (int i = 0; i < n; i++) {
+                    items[i] = readBool(buffer, items[i]);
+                }
+            }
+            case UINT8 -> {
+                for (int i = 0; i < n; i++) {
+                    items[i] = readUInt8(buffer, items[i]);
+                }
+            }
+            case INT16 -> {
+                for (int i = 0; i < n; i++) {
+                    items[i] = readInt16(buffer, items[i]);
+                }
+            }
+            case UINT16 -> {
+                for (int i = 0; i < n; i++) {
+                    items[i] = readUInt16(buffer, items[i]);
+                }
+            }
+            case INT32 -> {
+                for (int i = 0; i < n; i++) {
+                    items[i] = readInt32(buffer, items[i]);
+                }
+            }
+            case UINT32 -> {
+                for (int i = 0; i < n; i++) {
+                    items[i] = readUInt32(buffer, items[i]);
+                }
+            }
+            case INT64, UINT64 -> {
+                for (int i = 0; i < n; i++) {
+                    items[i] = readInt64(buffer, items[i]);
+                }
+            }
+        }
+        return items;
+    }
+}
@@ -0,0 +1,25 @@
+package com.microavia.jmalib.log.ulog;
+
+/**
+ * Mode of decoding of messages for {@link Subscription}.
+ */
+public enum DecodeMode {
+    /**
+     * Decode all fields of every message.
+     */
+    EAGER,
+    /**
+     * Keep copy of the raw message and decode only fields requested by {@link Getter#get()}, whole value is decoded
+     * only if {@link Subscription#getValue()} called. Getters of missing vector elements return null.
+     */
+    LAZY,
+    /**
+     * Decode all fields of every message into the value of the previous message, arrays of the value are reused
+     * and overwritten. Values returned by {@link Subscription#getValue()} and {@link Getter#get()} are valid only
+     * until the next update of the subscription, i.e. next readUpdate() call, and must be copied to be kept longer.
+     * Scalar values are still boxed, but boxed value of the previous message is kept if the value is not changed.
+     * To read numeric fields without allocation use {@link #LAZY} mode and primitive getters, e.g.
+     * {@link Getter#getDouble()}.
+     */
+    REUSE
+}
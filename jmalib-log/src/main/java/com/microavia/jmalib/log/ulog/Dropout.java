@@ -0,0 +1,11 @@
+package com.microavia.jmalib.log.ulog;
+
+/**
+ * Gap in the log: messages were dropped by the logger, e.g. because of slow storage.
+ *
+ * @param timestamp            timestamp of the last data message before the gap or -1 if the gap is before the
+ *                             first data message
+ * @param durationMicroseconds duration of the gap
+ */
+public record Dropout(long timestamp, long durationMicroseconds) {
+}
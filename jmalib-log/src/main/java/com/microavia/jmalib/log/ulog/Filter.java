@@ -0,0 +1,198 @@
+package com.microavia.jmalib.log.ulog;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Predicate on messages of a subscription, checked against raw message bytes before decoding, see
+ * {@link Subscription#setFilter(Filter)}. Messages not matching the filter don't update the subscription.
+ * <p>
+ * Conditions on fields are created by {@link Subscription#field(String)}, e.g.
+ * {@code sub.field("arming_state").eq(2).and(Filter.timeRange(t0, t1))}. Only scalar fields can be used, values are
+ * read from the offsets of the fields in raw message, fields located after variable size fields are found using
+ * skippers. Field missing in the message, e.g. vector element out of range, doesn't match any condition.
+ */
+public abstract class Filter {
+    private enum Op {
+        EQ, NE, LT, LE, GT, GE
+    }
+
+    /**
+     * Check if message matches the filter. Buffer position is not modified.
+     *
+     * @param buffer    buffer containing the message
+     * @param base      offset of the topic value (after timestamp) in buffer
+     * @param end       offset of the end of the message in buffer
+     * @param timestamp timestamp of the message
+     */
+    abstract boolean test(ByteBuffer buffer, int base, int end, long timestamp);
+
+    public Filter and(Filter other) {
+        Filter self = this;
+        return new Filter() {
+            @Override
+            boolean test(ByteBuffer buffer, int base, int end, long timestamp) {
+                return self.test(buffer, base, end, timestamp) && other.test(buffer, base, end, timestamp);
+            }
+        };
+    }
+
+    public Filter or(Filter other) {
+        Filter self = this;
+        return new Filter() {
+            @Override
+            boolean test(ByteBuffer buffer, int base, int end, long timestamp) {
+                return self.test(buffer, base, end, timestamp) || other.test(buffer, base, end, timestamp);
+            }
+        };
+    }
+
+    public Filter negate() {
+        Filter self = this;
+        return new Filter() {
+            @Override
+            boolean test(ByteBuffer buffer, int base, int end, long timestamp) {
+                return !self.test(buffer, base, end, timestamp);
+            }
+        };
+    }
+
+    /**
+     * Match messages with timestamps in range, checked before any field of the message is read if used as the
+     * first operand of {@link #and(Filter)}.
+     *
+     * @param start start of the range in us, inclusive
+     * @param end   end of the range in us, exclusive
+     */
+    public static Filter timeRange(long start, long end) {
+        return new Filter() {
+            @Override
+            boolean test(ByteBuffer buffer, int base, int msgEnd, long timestamp) {
+                return timestamp >= start && timestamp < end;
+            }
+        };
+    }
+
+    /**
+     * Scalar field of a topic to create conditions on.
+     */
+    public static class Field {
+        private final Getter getter;
+        private final Scalar scalar;
+
+        Field(Getter getter) {
+            this.getter = getter;
+            this.scalar = getter.getScalar();
+            if (scalar == null) {
+                throw new SubscriptionException("Field is not scalar: " + getter.getPath());
+            }
+        }
+
+        public Filter eq(long value) {
+            return condition(Op.EQ, value);
+        }
+
+        public Filter ne(long value) {
+            return condition(Op.NE, value);
+        }
+
+        public Filter lt(long value) {
+            return condition(Op.LT, value);
+        }
+
+        public Filter le(long value) {
+            return condition(Op.LE, value);
+        }
+
+        public Filter gt(long value) {
+            return condition(Op.GT, value);
+        }
+
+        public Filter ge(long value) {
+            return condition(Op.GE, value);
+        }
+
+        public Filter eq(double value) {
+            return condition(Op.EQ, value);
+        }
+
+        public Filter ne(double value) {
+            return condition(Op.NE, value);
+        }
+
+        public Filter lt(double value) {
+            return condition(Op.LT, value);
+        }
+
+        public Filter le(double value) {
+            return condition(Op.LE, value);
+        }
+
+        public Filter gt(double value) {
+            return condition(Op.GT, value);
+        }
+
+        public Filter ge(double value) {
+            return condition(Op.GE, value);
+        }
+
+        private Filter condition(Op op, long value) {
+            if (Column.getKind(scalar) != Column.Kind.LONG) {
+                return condition(op, (double) value);
+            }
+            // Compare integers exactly
+            return new Filter() {
+                @Override
+                boolean test(ByteBuffer buffer, int base, int end, long timestamp) {
+                    int offset = getOffset(buffer, base, end);
+                    return offset >= 0 && compare(op, Long.compare(scalar.getLong(buffer, offset), value));
+                }
+            };
+        }
+
+        private Filter condition(Op op, double value) {
+            return new Filter() {
+                @Override
+                boolean test(ByteBuffer buffer, int base, int end, long timestamp) {
+                    int offset = getOffset(buffer, base, end);
+                    if (offset < 0) {
+                        return false;
+                    }
+                    double v = scalar.getDouble(buffer, offset);
+                    return switch (op) {
+                        case EQ -> v == value;
+                        case NE -> v != value;
+                        case LT -> v < value;
+                        case LE -> v <= value;
+                        case GT -> v > value;
+                        case GE -> v >= value;
+                    };
+                }
+            };
+        }
+
+        /**
+         * @return offset of the value or -1 if missing
+         */
+        private int getOffset(ByteBuffer buffer, int base, int end) {
+            int offset;
+            try {
+                offset = getter.fixedOffset >= 0 ? base + getter.fixedOffset : getter.offsetFunction.offset(buffer, base);
+            } catch (IndexOutOfBoundsException e) {
+                // Corrupted message
+                return -1;
+            }
+            return offset < 0 || offset + scalar.size > end ? -1 : offset;
+        }
+
+        private static boolean compare(Op op, int c) {
+            return switch (op) {
+                case EQ -> c == 0;
+                case NE -> c != 0;
+                case LT -> c < 0;
+                case LE -> c <= 0;
+                case GT -> c > 0;
+                case GE -> c >= 0;
+            };
+        }
+    }
+}
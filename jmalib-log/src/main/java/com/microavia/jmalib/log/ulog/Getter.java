@@ -2,31 +2,63 @@ package com.microavia.jmalib.log.ulog;
 
 import com.microavia.jmalib.log.ulog.model.*;
 
+import java.nio.ByteBuffer;
+
 public class Getter {
     interface GetterFunction {
         Object get(Object obj);
     }
 
+    interface OffsetFunction {
+        /**
+         * Get offset of the value in raw message.
+         *
+         * @param message buffer containing raw message
+         * @param base    offset of the message in buffer
+         * @return offset in buffer or -1 if value is missing in the message
+         */
+        int offset(ByteBuffer message, int base);
+    }
+
     final GetterFunction getterFunction;
+    final OffsetFunction offsetFunction;
+    final int fixedOffset;
     final Type type;
     final Subscription subscription;
     final String path;
     final int multiIdFilter;
+    private final Scalar scalar;
+    private Parser parser = null;
 
     public Getter() {
         this.subscription = new Subscription();
         this.path = "";
         this.getterFunction = (obj -> null);
+        this.offsetFunction = ((message, base) -> -1);
+        this.fixedOffset = -1;
         this.type = null;
         this.multiIdFilter = -1;
+        this.scalar = null;
     }
 
-    Getter(Subscription subscription, String path, GetterFunction getterFunction, Type type, int multiIdFilter) {
+    /**
+     * @param offsetFunction function to locate value in raw message
+     * @param fixedOffset    offset of the value relative to message start if it's the same for all messages, or -1
+     */
+    Getter(Subscription subscription, String path, GetterFunction getterFunction, OffsetFunction offsetFunction, int fixedOffset, Type type, int multiIdFilter) {
         this.subscription = subscription;
         this.path = path;
         this.getterFunction = getterFunction;
+        this.offsetFunction = offsetFunction;
+        this.fixedOffset = fixedOffset;
         this.type = type;
         this.multiIdFilter = multiIdFilter;
+        this.scalar = type == null ? null : switch (type.getTypeClass()) {
+            case SCALAR -> Scalar.of(type.getTypeName());
+            case ENUM -> Scalar.of(((EnumType) type).getBaseType());
+            case BITSET -> Scalar.of(((BitsetType) type).getBaseType());
+            default -> null;
+        };
     }
 
     public String getPath() {
@@ -41,9 +73,110 @@ public class Getter {
     }
 
     public Object get() {
+        ByteBuffer message = subscription.getMessage();
+        if (message != null) {
+            // Decode only this value from raw message
+            int offset = offsetFunction.offset(message, 0);
+            if (offset < 0) {
+                return null;
+            }
+            if (parser == null) {
+                parser = subscription.getValueParser(type);
+            }
+            return parser.parse(message.position(offset));
+        }
         return getterFunction.get(subscription.getValue());
     }
 
+    /**
+     * Get value from decoded value of the topic instead of the current value of the subscription, e.g. from value
+     * of a message received from {@link ULogPipeline}. Doesn't change any state, so can be used from any thread.
+     *
+     * @param topicValue decoded value of the whole topic as returned by {@link Subscription#getValue()}
+     */
+    public Object getFrom(Object topicValue) {
+        if (topicValue == null || getterFunction == null) {
+            return topicValue;
+        }
+        return getterFunction.get(topicValue);
+    }
+
+    /**
+     * Get numeric value as double. In {@link DecodeMode#LAZY} mode value is read directly from the raw message
+     * without decoding and allocations.
+     *
+     * @return value or NaN if value is missing
+     * @throws SubscriptionException if value is not numeric
+     */
+    public double getDouble() {
+        ByteBuffer message = subscription.getMessage();
+        if (message != null && scalar != null) {
+            int offset = fixedOffset >= 0 ? fixedOffset : offsetFunction.offset(message, 0);
+            return offset < 0 ? Double.NaN : scalar.getDouble(message, offset);
+        }
+        Object value = get();
+        if (value instanceof Number num) {
+            return num.doubleValue();
+        }
+        if (value instanceof Boolean b) {
+            return b ? 1.0 : 0.0;
+        }
+        if (value == null) {
+            return Double.NaN;
+        }
+        throw new SubscriptionException("Value is not numeric: " + path);
+    }
+
+    /**
+     * Get numeric value as float, see {@link #getDouble()}.
+     *
+     * @return value or NaN if value is missing
+     * @throws SubscriptionException if value is not numeric
+     */
+    public float getFloat() {
+        return (float) getDouble();
+    }
+
+    /**
+     * Get numeric value as long. In {@link DecodeMode#LAZY} mode value is read directly from the raw message
+     * without decoding and allocations. Floating point values are truncated.
+     *
+     * @return value or 0 if value is missing
+     * @throws SubscriptionException if value is not numeric
+     */
+    public long getLong() {
+        ByteBuffer message = subscription.getMessage();
+        if (message != null && scalar != null) {
+            int offset = fixedOffset >= 0 ? fixedOffset : offsetFunction.offset(message, 0);
+            return offset < 0 ? 0 : scalar.getLong(message, offset);
+        }
+        Object value = get();
+        if (value instanceof Number num) {
+            return num.longValue();
+        }
+        if (value instanceof Boolean b) {
+            return b ? 1 : 0;
+        }
+        if (value == null) {
+            return 0;
+        }
+        throw new SubscriptionException("Value is not numeric: " + path);
+    }
+
+    /**
+     * Get numeric value as int, see {@link #getLong()}.
+     *
+     * @return value or 0 if value is missing
+     * @throws SubscriptionException if value is not numeric
+     */
+    public int getInt() {
+        return (int) getLong();
+    }
+
+    Scalar getScalar() {
+        return scalar;
+    }
+
     public Type getType() {
         return type;
     }
@@ -0,0 +1,11 @@
+package com.microavia.jmalib.log.ulog;
+
+/**
+ * Text message logged by the system, e.g. warning shown to the operator.
+ *
+ * @param timestamp timestamp of the message
+ * @param level     log level, 0 (emergency) to 7 (debug)
+ * @param message   message text
+ */
+public record LogMessage(long timestamp, int level, String message) {
+}
@@ -2,6 +2,19 @@ package com.microavia.jmalib.log.ulog;
 
 import java.nio.ByteBuffer;
 
-interface Parser {
+/**
+ * Parser of values of a type, see {@link Codec#getValueParser(String)}.
+ */
+public interface Parser {
     Object parse(ByteBuffer buffer);
+
+    /**
+     * Parse value reusing arrays of the previous value where possible, reused arrays are overwritten.
+     *
+     * @param reuse value previously returned by this parser or null
+     * @return parsed value, may be the same object as reuse
+     */
+    default Object parse(ByteBuffer buffer, Object reuse) {
+        return parse(buffer);
+    }
 }
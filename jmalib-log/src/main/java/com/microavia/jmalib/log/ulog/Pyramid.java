@@ -0,0 +1,219 @@
+package com.microavia.jmalib.log.ulog;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Multi-resolution summary of a numeric field for plotting: min, max, first and last value of samples in fixed
+ * time buckets at several levels. Every next level merges {@link #FACTOR} buckets of the previous one, so the view
+ * of any time range can be rendered from a bounded number of points regardless of log size. Empty buckets are not
+ * stored.
+ */
+public class Pyramid {
+    /**
+     * Number of buckets of a level merged into one bucket of the next level.
+     */
+    public static final int FACTOR = 4;
+    /**
+     * Levels are added until level has no more than this number of buckets.
+     */
+    static final int TOP_LEVEL_SIZE = 256;
+
+    /**
+     * Buckets of one level, sorted by time.
+     */
+    public static class Level {
+        private final long bucketMicroseconds;
+        private long[] times;
+        private double[] min;
+        private double[] max;
+        private double[] first;
+        private double[] last;
+        private int size = 0;
+
+        Level(long bucketMicroseconds, int capacity) {
+            this.bucketMicroseconds = bucketMicroseconds;
+            capacity = Math.max(capacity, 1);
+            times = new long[capacity];
+            min = new double[capacity];
+            max = new double[capacity];
+            first = new double[capacity];
+            last = new double[capacity];
+        }
+
+        /**
+         * Get bucket width in us.
+         */
+        public long getBucketMicroseconds() {
+            return bucketMicroseconds;
+        }
+
+        public int size() {
+            return size;
+        }
+
+        /**
+         * Get start time of the bucket in us.
+         */
+        public long getTime(int idx) {
+            return times[idx];
+        }
+
+        public double getMin(int idx) {
+            return min[idx];
+        }
+
+        public double getMax(int idx) {
+            return max[idx];
+        }
+
+        public double getFirst(int idx) {
+            return first[idx];
+        }
+
+        public double getLast(int idx) {
+            return last[idx];
+        }
+
+        /**
+         * Find first bucket that ends after specified time.
+         *
+         * @return bucket index or {@link #size()} if there are no such buckets
+         */
+        public int indexOf(long time) {
+            int idx = Arrays.binarySearch(times, 0, size, time - bucketMicroseconds + 1);
+            return idx >= 0 ? idx : -idx - 1;
+        }
+
+        /**
+         * Add new bucket or merge values into the existing one that starts at the same time. Buckets are kept sorted
+         * by time if samples are out of order, values of the sample are merged as if it's the last one.
+         */
+        void add(long time, double vMin, double vMax, double vFirst, double vLast) {
+            int idx = size;
+            // Samples are usually in time order, so only the last bucket is checked
+            if (size > 0 && times[size - 1] >= time) {
+                idx = Arrays.binarySearch(times, 0, size, time);
+                if (idx >= 0) {
+                    if (Double.isNaN(min[idx]) || vMin < min[idx]) {
+                        min[idx] = vMin;
+                    }
+                    if (Double.isNaN(max[idx]) || vMax > max[idx]) {
+                        max[idx] = vMax;
+                    }
+                    last[idx] = vLast;
+                    return;
+                }
+                idx = -idx - 1;
+            }
+            if (size == times.length) {
+                int capacity = size * 2;
+                times = Arrays.copyOf(times, capacity);
+                min = Arrays.copyOf(min, capacity);
+                max = Arrays.copyOf(max, capacity);
+                first = Arrays.copyOf(first, capacity);
+                last = Arrays.copyOf(last, capacity);
+            }
+            if (idx < size) {
+                System.arraycopy(times, idx, times, idx + 1, size - idx);
+                System.arraycopy(min, idx, min, idx + 1, size - idx);
+                System.arraycopy(max, idx, max, idx + 1, size - idx);
+                System.arraycopy(first, idx, first, idx + 1, size - idx);
+                System.arraycopy(last, idx, last, idx + 1, size - idx);
+            }
+            times[idx] = time;
+            min[idx] = vMin;
+            max[idx] = vMax;
+            first[idx] = vFirst;
+            last[idx] = vLast;
+            size++;
+        }
+    }
+
+    private final String path;
+    private final int multiId;
+    private final List<Level> levels = new ArrayList<>();
+
+    Pyramid(String path, int multiId) {
+        this.path = path;
+        this.multiId = multiId;
+    }
+
+    /**
+     * Build pyramid from column values.
+     *
+     * @param columnSet          column set containing the column, provides timestamps
+     * @param column             column of numeric field, missing values are skipped
+     * @param startMicroseconds  start time of the buckets, usually log start time, so buckets of all fields are aligned
+     * @param bucketMicroseconds bucket width of the finest level
+     */
+    static Pyramid build(ColumnSet columnSet, Column column, long startMicroseconds, long bucketMicroseconds) {
+        Pyramid pyramid = new Pyramid(column.getPath(), columnSet.getMultiId());
+        Level level = new Level(bucketMicroseconds, Math.min(column.size(), 1024));
+        for (int i = 0; i < column.size(); i++) {
+            if (!column.isValid(i)) {
+                continue;
+            }
+            double v = column.getDouble(i);
+            level.add(bucketStart(columnSet.getTimestamp(i), startMicroseconds, bucketMicroseconds), v, v, v, v);
+        }
+        pyramid.levels.add(level);
+        while (level.size > TOP_LEVEL_SIZE) {
+            long width = level.bucketMicroseconds * FACTOR;
+            Level next = new Level(width, level.size / FACTOR + 1);
+            for (int i = 0; i < level.size; i++) {
+                next.add(bucketStart(level.times[i], startMicroseconds, width), level.min[i], level.max[i], level.first[i], level.last[i]);
+            }
+            pyramid.levels.add(next);
+            level = next;
+        }
+        return pyramid;
+    }
+
+    private static long bucketStart(long time, long startMicroseconds, long bucketMicroseconds) {
+        return startMicroseconds + Math.floorDiv(time - startMicroseconds, bucketMicroseconds) * bucketMicroseconds;
+    }
+
+    /**
+     * Get full path of the field, e.g. "ATTITUDE_POSITION.alt_el".
+     */
+    public String getPath() {
+        return path;
+    }
+
+    /**
+     * Get multi instance id, without main instance flag.
+     */
+    public int getMultiId() {
+        return multiId;
+    }
+
+    public int getLevelsNum() {
+        return levels.size();
+    }
+
+    /**
+     * Get level by index, level 0 is the finest one.
+     */
+    public Level getLevel(int idx) {
+        return levels.get(idx);
+    }
+
+    /**
+     * Select the finest level that has no more than specified number of buckets in the time range.
+     *
+     * @param start     range start in us
+     * @param end       range end in us
+     * @param maxPoints max number of buckets in the range
+     * @return level, the coarsest one if all levels have more buckets in the range
+     */
+    public Level selectLevel(long start, long end, int maxPoints) {
+        for (Level level : levels) {
+            if (level.indexOf(end) - level.indexOf(start) <= maxPoints) {
+                return level;
+            }
+        }
+        return levels.get(levels.size() - 1);
+    }
+}
@@ -0,0 +1,289 @@
+package com.microavia.jmalib.log.ulog;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Streaming join of fields of several topics to rows aligned in time, either on a regular time grid or on
+ * timestamps of a driving topic. Values are resampled using zero-order hold or linear interpolation, only main
+ * instances of topics are used. Log is read from the current reader position via subscriptions in
+ * {@link DecodeMode#LAZY} mode, values are read from raw messages.
+ * <p>
+ * Row is complete when every field has a sample after row time, so rows are kept in a ring of fixed capacity until
+ * slow topics are updated. If ring is full, e.g. a topic stopped publishing, the oldest row is completed holding
+ * the last values. Row array is reused, no memory is allocated per row.
+ * <pre>
+ * var resampler = Resampler.onGrid(reader, List.of("SENSOR.acc.x", "STATUS.arming_state"), Interpolation.LINEAR, start, 10_000);
+ * while (resampler.next()) {
+ *     process(resampler.getTimestamp(), resampler.getRow());
+ * }
+ * </pre>
+ */
+public class Resampler {
+    public static final int DEFAULT_CAPACITY = 4096;
+
+    public enum Interpolation {
+        /**
+         * Value of the last sample at or before row time.
+         */
+        HOLD,
+        /**
+         * Linear interpolation between samples around row time.
+         */
+        LINEAR
+    }
+
+    private final ULogReader reader;
+    private final List<String> fieldPaths;
+    private final Getter[] getters;
+    private final Interpolation interpolation;
+    private final int columnsNum;
+    // Grid mode
+    private final long gridStep;
+    private long nextGridTime;
+    // Driving topic mode
+    private final Subscription drivingSubscription;
+    // Ring of pending rows, indexed by row sequence number modulo capacity
+    private final int capacity;
+    private final long[] rowTimes;
+    private final double[] rowValues;
+    private long rowsStart = 0;
+    private long rowsEnd = 0;
+    // Per column: first row not resolved yet and the last sample
+    private final long[] nextRow;
+    private final long[] sampleTimes;
+    private final double[] sampleValues;
+    // Update read from the log, not applied yet
+    private long updateTime = Long.MIN_VALUE;
+    private final boolean[] updated;
+    private final double[] updateValues;
+    private boolean updatePending = false;
+    private boolean endOfLog = false;
+    // Current row
+    private long timestamp = Long.MIN_VALUE;
+    private final double[] row;
+
+    private Resampler(ULogReader reader, List<String> fieldPaths, Interpolation interpolation, int capacity,
+                      long gridStart, long gridStep, String drivingTopic) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Invalid capacity: " + capacity);
+        }
+        this.reader = reader;
+        this.fieldPaths = List.copyOf(fieldPaths);
+        this.interpolation = interpolation;
+        this.capacity = capacity;
+        this.gridStep = gridStep;
+        this.nextGridTime = gridStart;
+        columnsNum = this.fieldPaths.size();
+        getters = new Getter[columnsNum];
+        for (int i = 0; i < columnsNum; i++) {
+            String path = this.fieldPaths.get(i);
+            int idx = path.indexOf('.');
+            if (idx <= 0) {
+                throw new SubscriptionException("Invalid field path: " + path);
+            }
+            getters[i] = reader.addSubscription(path.substring(0, idx), DecodeMode.LAZY).createGetter(path.substring(idx + 1));
+        }
+        drivingSubscription = drivingTopic != null ? reader.addSubscription(drivingTopic, DecodeMode.LAZY) : null;
+        rowTimes = new long[capacity];
+        rowValues = new double[capacity * columnsNum];
+        nextRow = new long[columnsNum];
+        sampleTimes = new long[columnsNum];
+        Arrays.fill(sampleTimes, Long.MIN_VALUE);
+        sampleValues = new double[columnsNum];
+        Arrays.fill(sampleValues, Double.NaN);
+        updated = new boolean[columnsNum];
+        updateValues = new double[columnsNum];
+        row = new double[columnsNum];
+    }
+
+    /**
+     * Create resampler emitting rows on regular time grid, until the end of the log.
+     *
+     * @param fieldPaths full paths of numeric fields, e.g. "ATTITUDE_POSITION.alt_el"
+     * @param start      time of the first row in us
+     * @param step       time step between rows in us
+     * @throws SubscriptionException if topic or field not found
+     */
+    public static Resampler onGrid(ULogReader reader, List<String> fieldPaths, Interpolation interpolation, long start, long step) {
+        return onGrid(reader, fieldPaths, interpolation, start, step, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity max number of rows waiting for samples of slow topics
+     */
+    public static Resampler onGrid(ULogReader reader, List<String> fieldPaths, Interpolation interpolation, long start, long step,
+                                   int capacity) {
+        if (step <= 0) {
+            throw new IllegalArgumentException("Invalid step: " + step);
+        }
+        return new Resampler(reader, fieldPaths, interpolation, capacity, start, step, null);
+    }
+
+    /**
+     * Create resampler emitting row for every message of main instance of the driving topic.
+     *
+     * @param fieldPaths   full paths of numeric fields, e.g. "ATTITUDE_POSITION.alt_el"
+     * @param drivingTopic topic name
+     * @throws SubscriptionException if topic or field not found
+     */
+    public static Resampler onTopic(ULogReader reader, List<String> fieldPaths, Interpolation interpolation, String drivingTopic) {
+        return onTopic(reader, fieldPaths, interpolation, drivingTopic, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity max number of rows waiting for samples of slow topics
+     */
+    public static Resampler onTopic(ULogReader reader, List<String> fieldPaths, Interpolation interpolation, String drivingTopic,
+                                    int capacity) {
+        return new Resampler(reader, fieldPaths, interpolation, capacity, 0, 0, drivingTopic);
+    }
+
+    public List<String> getFieldPaths() {
+        return fieldPaths;
+    }
+
+    /**
+     * Advance to the next row.
+     *
+     * @return false if no more rows
+     */
+    public boolean next() throws IOException {
+        while (true) {
+            if (rowsStart < getResolvedEnd()) {
+                int idx = (int) (rowsStart % capacity);
+                timestamp = rowTimes[idx];
+                System.arraycopy(rowValues, idx * columnsNum, row, 0, columnsNum);
+                rowsStart++;
+                return true;
+            }
+            if (endOfLog || rowsEnd - rowsStart == capacity) {
+                if (rowsStart == rowsEnd) {
+                    return false;
+                }
+                // No more samples for the oldest row, hold the last values
+                holdOldestRow();
+                continue;
+            }
+            if (!updatePending) {
+                readUpdate();
+                continue;
+            }
+            // Add rows up to update time, then apply the update
+            if (drivingSubscription == null && nextGridTime <= updateTime) {
+                addRow(nextGridTime);
+                nextGridTime += gridStep;
+                continue;
+            }
+            applyUpdate();
+        }
+    }
+
+    /**
+     * Get time of the current row in us.
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * Get values of the current row, in order of field paths. Values are NaN before the first sample of a field.
+     * Returned array is reused for all rows.
+     */
+    public double[] getRow() {
+        return row;
+    }
+
+    public double getValue(int column) {
+        return row[column];
+    }
+
+    private void readUpdate() throws IOException {
+        long t;
+        try {
+            t = reader.readUpdate();
+        } catch (EOFException e) {
+            endOfLog = true;
+            return;
+        }
+        boolean any = false;
+        for (int i = 0; i < columnsNum; i++) {
+            updated[i] = getters[i].isUpdated();
+            if (updated[i]) {
+                updateValues[i] = getters[i].getDouble();
+                any = true;
+            }
+        }
+        boolean driving = drivingSubscription != null && drivingSubscription.isUpdated()
+                && (drivingSubscription.getMultiId() & 0x80) != 0;
+        if (driving) {
+            // Row at time of the driving message, values of the message itself are applied after it
+            updateTime = t;
+            addRow(t);
+        }
+        if (any) {
+            updateTime = t;
+            updatePending = true;
+        }
+    }
+
+    private void applyUpdate() {
+        for (int c = 0; c < columnsNum; c++) {
+            if (!updated[c]) {
+                continue;
+            }
+            double v = updateValues[c];
+            // Rows before the sample are resolved
+            while (nextRow[c] < rowsEnd) {
+                int idx = (int) (nextRow[c] % capacity);
+                long t = rowTimes[idx];
+                if (t >= updateTime) {
+                    break;
+                }
+                rowValues[idx * columnsNum + c] = interpolate(c, t, updateTime, v);
+                nextRow[c]++;
+            }
+            sampleTimes[c] = updateTime;
+            sampleValues[c] = v;
+        }
+        updatePending = false;
+    }
+
+    private double interpolate(int c, long t, long nextTime, double nextValue) {
+        long prevTime = sampleTimes[c];
+        if (interpolation == Interpolation.HOLD || prevTime == t || prevTime == Long.MIN_VALUE) {
+            return sampleValues[c];
+        }
+        double prevValue = sampleValues[c];
+        return prevValue + (nextValue - prevValue) * (double) (t - prevTime) / (double) (nextTime - prevTime);
+    }
+
+    private void addRow(long t) {
+        int idx = (int) (rowsEnd % capacity);
+        rowTimes[idx] = t;
+        rowsEnd++;
+    }
+
+    private void holdOldestRow() {
+        int idx = (int) (rowsStart % capacity);
+        for (int c = 0; c < columnsNum; c++) {
+            if (nextRow[c] == rowsStart) {
+                rowValues[idx * columnsNum + c] = sampleValues[c];
+                nextRow[c]++;
+            }
+        }
+    }
+
+    /**
+     * @return end of the range of rows resolved for all columns
+     */
+    private long getResolvedEnd() {
+        long end = rowsEnd;
+        for (long n : nextRow) {
+            end = Math.min(end, n);
+        }
+        return end;
+    }
+}
@@ -0,0 +1,71 @@
+package com.microavia.jmalib.log.ulog;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Built-in scalar types, reading values without boxing.
+ */
+enum Scalar {
+    FLOAT32(4),
+    FLOAT64(8),
+    INT8(1),
+    BOOL(1),
+    UINT8(1),
+    INT16(2),
+    UINT16(2),
+    INT32(4),
+    UINT32(4),
+    INT64(8),
+    UINT64(8);
+
+    final int size;
+
+    Scalar(int size) {
+        this.size = size;
+    }
+
+    /**
+     * Get scalar by normalized type name.
+     *
+     * @return scalar or null if type is not a built-in scalar
+     */
+    static Scalar of(String typeName) {
+        return switch (typeName) {
+            case "float32" -> FLOAT32;
+            case "float64" -> FLOAT64;
+            case "int8" -> INT8;
+            case "bool" -> BOOL;
+            case "uint8" -> UINT8;
+            case "int16" -> INT16;
+            case "uint16" -> UINT16;
+            case "int32" -> INT32;
+            case "uint32" -> UINT32;
+            case "int64" -> INT64;
+            case "uint64" -> UINT64;
+            default -> null;
+        };
+    }
+
+    long getLong(ByteBuffer buffer, int offset) {
+        return switch (this) {
+            case FLOAT32 -> (long) buffer.getFloat(offset);
+            case FLOAT64 -> (long) buffer.getDouble(offset);
+            case INT8 -> buffer.get(offset);
+            case BOOL -> buffer.get(offset) != 0 ? 1 : 0;
+            case UINT8 -> buffer.get(offset) & 0xFF;
+            case INT16 -> buffer.getShort(offset);
+            case UINT16 -> buffer.getShort(offset) & 0xFFFF;
+            case INT32 -> buffer.getInt(offset);
+            case UINT32 -> buffer.getInt(offset) & 0xFFFFFFFFL;
+            case INT64, UINT64 -> buffer.getLong(offset);
+        };
+    }
+
+    double getDouble(ByteBuffer buffer, int offset) {
+        return switch (this) {
+            case FLOAT32 -> buffer.getFloat(offset);
+            case FLOAT64 -> buffer.getDouble(offset);
+            default -> getLong(buffer, offset);
+        };
+    }
+}
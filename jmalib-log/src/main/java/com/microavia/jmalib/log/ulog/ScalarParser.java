@@ -0,0 +1,63 @@
+package com.microavia.jmalib.log.ulog;
+
+import java.nio.ByteBuffer;
+
+class ScalarParser implements Parser {
+    private final Scalar scalar;
+
+    ScalarParser(Scalar scalar) {
+        this.scalar = scalar;
+    }
+
+    @Override
+    public Object parse(ByteBuffer buffer) {
+        return switch (scalar) {
+            case FLOAT32 -> buffer.getFloat();
+            case FLOAT64 -> buffer.getDouble();
+            case INT8 -> (int) buffer.get();
+            case BOOL -> buffer.get() != 0;
+            case UINT8 -> buffer.get() & 0xFF;
+            case INT16 -> (int) buffer.getShort();
+            case UINT16 -> buffer.getShort() & 0xFFFF;
+            case INT32 -> buffer.getInt();
+            case UINT32 -> buffer.getInt() & 0xFFFFFFFFL;
+            case INT64, UINT64 -> buffer.getLong();
+        };
+    }
+
+    /**
+     * Parse value, previous value is returned instead of new boxed value if equal.
+     */
+    @Override
+    public Object parse(ByteBuffer buffer, Object reuse) {
+        return switch (scalar) {
+            case FLOAT32 -> boxFloat(buffer.getFloat(), reuse);
+            case FLOAT64 -> boxDouble(buffer.getDouble(), reuse);
+            // All int8 and bool values are cached by boxing
+            case INT8 -> (int) buffer.get();
+            case BOOL -> buffer.get() != 0;
+            case UINT8 -> boxInt(buffer.get() & 0xFF, reuse);
+            case INT16 -> boxInt(buffer.getShort(), reuse);
+            case UINT16 -> boxInt(buffer.getShort() & 0xFFFF, reuse);
+            case INT32 -> boxInt(buffer.getInt(), reuse);
+            case UINT32 -> boxLong(buffer.getInt() & 0xFFFFFFFFL, reuse);
+            case INT64, UINT64 -> boxLong(buffer.getLong(), reuse);
+        };
+    }
+
+    static Object boxFloat(float v, Object old) {
+        return old instanceof Float f && Float.floatToRawIntBits(f) == Float.floatToRawIntBits(v) ? old : (Object) v;
+    }
+
+    static Object boxDouble(double v, Object old) {
+        return old instanceof Double d && Double.doubleToRawLongBits(d) == Double.doubleToRawLongBits(v) ? old : (Object) v;
+    }
+
+    static Object boxInt(int v, Object old) {
+        return old instanceof Integer i && i == v ? old : (Object) v;
+    }
+
+    static Object boxLong(long v, Object old) {
+        return old instanceof Long l && l == v ? old : (Object) v;
+    }
+}
@@ -0,0 +1,48 @@
+package com.microavia.jmalib.log.ulog;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Process-wide registry of frozen codecs keyed by hash of format definitions. Logs written by the same firmware
+ * have the same definitions, so their readers share one codec with already resolved types and built parsers.
+ * Least recently used codecs are evicted when registry is full.
+ */
+final class SchemaRegistry {
+    private static final int MAX_ENTRIES = 64;
+
+    private static final Map<String, Codec> codecs = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Codec> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    };
+
+    private SchemaRegistry() {
+    }
+
+    /**
+     * Get registered codec with the same definitions or register the specified one. Registered codec is frozen.
+     *
+     * @param key   hash of definitions and parsing options
+     * @param codec codec built from the definitions
+     * @return codec to use instead of specified one
+     */
+    static synchronized Codec intern(String key, Codec codec) {
+        Codec registered = codecs.get(key);
+        if (registered == null) {
+            codec.freeze();
+            codecs.put(key, codec);
+            registered = codec;
+        }
+        return registered;
+    }
+
+    static synchronized int size() {
+        return codecs.size();
+    }
+
+    static synchronized void clear() {
+        codecs.clear();
+    }
+}
@@ -0,0 +1,10 @@
+package com.microavia.jmalib.log.ulog;
+
+import java.nio.ByteBuffer;
+
+interface Skipper {
+    /**
+     * Get offset of the end of the value located at specified offset.
+     */
+    int skip(ByteBuffer buffer, int offset);
+}
@@ -17,4 +17,13 @@ class StructParser implements Parser {
         }
         return values;
     }
+
+    @Override
+    public Object parse(ByteBuffer buffer, Object reuse) {
+        Object[] values = reuse instanceof Object[] arr && arr.length == fieldParsers.length ? arr : new Object[fieldParsers.length];
+        for (int i = 0; i < fieldParsers.length; i++) {
+            values[i] = fieldParsers[i].parse(buffer, values[i]);
+        }
+        return values;
+    }
 }
@@ -3,28 +3,43 @@ package com.microavia.jmalib.log.ulog;
 import com.microavia.jmalib.log.ulog.model.*;
 
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 
 public class Subscription {
     private final Codec codec;
     private final String topicName;
     private final Type topicType;
-    private final StructParser structParser;
+    private final Parser structParser;
+    private final DecodeMode mode;
+    private final Skipper structSkipper;
+    private ByteBuffer message = null;
+    private boolean messageValid = false;
     private int multiId;
     private Object value;
+    private Object reusedValue = null;
     private boolean updated;
+    private Filter filter = null;
 
     public Subscription() {
         this.codec = null;
         this.topicName = null;
         this.topicType = null;
         this.structParser = null;
+        this.mode = DecodeMode.EAGER;
+        this.structSkipper = null;
     }
 
     Subscription(Codec codec, String topicName, Type topicType) {
+        this(codec, topicName, topicType, DecodeMode.EAGER);
+    }
+
+    Subscription(Codec codec, String topicName, Type topicType, DecodeMode mode) {
         this.codec = codec;
         this.topicName = topicName;
         this.topicType = topicType;
-        this.structParser = (StructParser) codec.getValueParser(topicType);
+        this.structParser = codec.getValueParser(topicType);
+        this.mode = mode;
+        this.structSkipper = mode == DecodeMode.LAZY ? codec.getSkipper(topicType) : null;
     }
 
     public Getter createGetter(String path) throws SubscriptionException {
@@ -32,7 +47,7 @@ public class Subscription {
     }
 
     public Getter createGetter(String path, int multiIdFilter) throws SubscriptionException {
-        return createGetter(new Getter(this, "", null, topicType, multiIdFilter), path, multiIdFilter);
+        return createGetter(new Getter(this, "", null, (message, base) -> base, 0, topicType, multiIdFilter), path, multiIdFilter);
     }
 
     private Getter createGetter(Getter parent, String path, int multiIdFilter) throws SubscriptionException {
@@ -43,7 +58,7 @@ public class Subscription {
             case TypeClass.STRUCT: {
                 String[] pathParts = path.split("[\\[.]", 2);
                 String fieldName = pathParts[0];
-                Getter fieldGetter = createFieldValueGetter(fieldName, (StructType) parent.type, multiIdFilter);
+                Getter fieldGetter = createFieldValueGetter(parent, fieldName, (StructType) parent.type, multiIdFilter);
 
                 if (fieldGetter == null) {
                     throw new SubscriptionException("Could not find field '" + fieldName + "' in struct '" + parent.getType().getTypeName() + "'");
@@ -54,7 +69,8 @@ public class Subscription {
                     getter = fieldGetter;
                 } else {
                     // Chain getter with parent
-                    getter = new Getter(this, path, obj -> fieldGetter.getterFunction.get(parent.getterFunction.get(obj)), fieldGetter.getType(), multiIdFilter);
+                    getter = new Getter(this, path, obj -> fieldGetter.getterFunction.get(parent.getterFunction.get(obj)),
+                            fieldGetter.offsetFunction, fieldGetter.fixedOffset, fieldGetter.getType(), multiIdFilter);
                 }
 
                 if (pathParts.length == 1) {
@@ -85,14 +101,15 @@ public class Subscription {
                     elTypeStr = vecType.getElementType();
                 }
                 var elType = codec.getTypeDescription(elTypeStr);
-                var idxGetter = new Getter(this, path, obj -> ((Object[]) obj)[idx], elType, multiIdFilter);
+                var idxGetter = createElementValueGetter(parent, path, idx, elType, multiIdFilter);
 
                 Getter getter;
                 if (parent.getterFunction == null) {
                     getter = idxGetter;
                 } else {
                     // Chain getter with parent
-                    getter = new Getter(this, parent.getPath() + path, obj -> idxGetter.getterFunction.get(parent.getterFunction.get(obj)), idxGetter.getType(), multiIdFilter);
+                    getter = new Getter(this, parent.getPath() + path, obj -> idxGetter.getterFunction.get(parent.getterFunction.get(obj)),
+                            idxGetter.offsetFunction, idxGetter.fixedOffset, idxGetter.getType(), multiIdFilter);
                 }
 
                 if (idxParts.length == 1 || idxParts[1].isEmpty()) {
@@ -106,8 +123,10 @@ public class Subscription {
         throw new SubscriptionException("Invalid parent type class '" + parent.getType().getTypeClass() + "' when creating getter for path '" + path + "'");
     }
 
-    private Getter createFieldValueGetter(String fieldName, StructType structType, int multiIdFilter) {
+    private Getter createFieldValueGetter(Getter parent, String fieldName, StructType structType, int multiIdFilter) {
         StructType.Field[] fields = structType.getFields();
+        // Offset of the field in struct, -1 if it depends on values of previous fields
+        int fieldOffset = 0;
         for (int i = 0; i < fields.length; i++) {
             var f = fields[i];
             if (f.name().equals(fieldName)) {
@@ -119,15 +138,156 @@ public class Subscription {
                     return null;
                 };
                 var fieldType = codec.getTypeDescription(f.typeName());
-                return new Getter(this, fieldName, g, fieldType, multiIdFilter);
+                var parentOffsetFunction = parent.offsetFunction;
+                Getter.OffsetFunction offsetFunction;
+                int fixedOffset = -1;
+                if (fieldOffset >= 0) {
+                    final int delta = fieldOffset;
+                    if (parent.fixedOffset >= 0) {
+                        fixedOffset = parent.fixedOffset + delta;
+                        final int offset = fixedOffset;
+                        offsetFunction = (message, base) -> base + offset;
+                    } else {
+                        offsetFunction = (message, base) -> {
+                            int offset = parentOffsetFunction.offset(message, base);
+                            return offset < 0 ? -1 : offset + delta;
+                        };
+                    }
+                } else {
+                    Skipper[] skippers = new Skipper[fieldIdx];
+                    for (int j = 0; j < fieldIdx; j++) {
+                        skippers[j] = codec.getSkipper(codec.getTypeDescription(fields[j].typeName()));
+                    }
+                    offsetFunction = (message, base) -> {
+                        int offset = parentOffsetFunction.offset(message, base);
+                        if (offset < 0) {
+                            return -1;
+                        }
+                        for (Skipper skipper : skippers) {
+                            offset = skipper.skip(message, offset);
+                        }
+                        return offset;
+                    };
+                }
+                return new Getter(this, fieldName, g, offsetFunction, fixedOffset, fieldType, multiIdFilter);
+            }
+            if (fieldOffset >= 0) {
+                int fieldSize = codec.getFixedSize(codec.getTypeDescription(f.typeName()));
+                fieldOffset = fieldSize < 0 ? -1 : fieldOffset + fieldSize;
             }
         }
         return null;    // Field not found
     }
 
+    private Getter createElementValueGetter(Getter parent, String path, int idx, Type elType, int multiIdFilter) {
+        var parentOffsetFunction = parent.offsetFunction;
+        int elSize = codec.getFixedSize(elType);
+        Getter.OffsetFunction offsetFunction;
+        int fixedOffset = -1;
+        if (parent.getType().getTypeClass() == TypeClass.ARRAY) {
+            if (elSize >= 0) {
+                final int delta = idx * elSize;
+                if (parent.fixedOffset >= 0) {
+                    fixedOffset = parent.fixedOffset + delta;
+                    final int offset = fixedOffset;
+                    offsetFunction = (message, base) -> base + offset;
+                } else {
+                    offsetFunction = (message, base) -> {
+                        int offset = parentOffsetFunction.offset(message, base);
+                        return offset < 0 ? -1 : offset + delta;
+                    };
+                }
+            } else {
+                Skipper elSkipper = codec.getSkipper(elType);
+                offsetFunction = (message, base) -> {
+                    int offset = parentOffsetFunction.offset(message, base);
+                    if (offset < 0) {
+                        return -1;
+                    }
+                    for (int i = 0; i < idx; i++) {
+                        offset = elSkipper.skip(message, offset);
+                    }
+                    return offset;
+                };
+            }
+        } else {
+            // Vector, elements number is stored before elements
+            Skipper elSkipper = elSize >= 0 ? null : codec.getSkipper(elType);
+            offsetFunction = (message, base) -> {
+                int offset = parentOffsetFunction.offset(message, base);
+                if (offset < 0 || idx >= message.getInt(offset)) {
+                    return -1;
+                }
+                offset += 4;
+                if (elSkipper == null) {
+                    return offset + idx * elSize;
+                }
+                for (int i = 0; i < idx; i++) {
+                    offset = elSkipper.skip(message, offset);
+                }
+                return offset;
+            };
+        }
+        return new Getter(this, path, obj -> ((Object[]) obj)[idx], offsetFunction, fixedOffset, elType, multiIdFilter);
+    }
+
+    /**
+     * Create field of the topic to build {@link Filter} conditions on.
+     *
+     * @param path path of scalar field, e.g. "acc.x"
+     * @throws SubscriptionException if field not found or is not scalar
+     */
+    public Filter.Field field(String path) throws SubscriptionException {
+        return new Filter.Field(createGetter(path));
+    }
+
+    /**
+     * Set filter of messages, messages not matching the filter are skipped by reader without decoding and don't
+     * update the subscription. Filter is applied to all instances of the topic.
+     *
+     * @param filter filter or null to receive all messages
+     */
+    public void setFilter(Filter filter) {
+        this.filter = filter;
+    }
+
+    public Filter getFilter() {
+        return filter;
+    }
+
+    /**
+     * Check if raw message matches the filter.
+     *
+     * @param buffer    buffer containing the message
+     * @param base      offset of the topic value (after timestamp) in buffer
+     * @param end       offset of the end of the message in buffer
+     * @param timestamp timestamp of the message
+     */
+    boolean accept(ByteBuffer buffer, int base, int end, long timestamp) {
+        return filter == null || filter.test(buffer, base, end, timestamp);
+    }
+
     public boolean update(ByteBuffer buffer, int mId) {
         if (structParser != null) {
-            value = structParser.parse(buffer);
+            if (mode == DecodeMode.LAZY) {
+                // Keep copy of the raw message, decode values on request
+                int start = buffer.position();
+                int size = structSkipper.skip(buffer, start) - start;
+                if (message == null || message.capacity() < size) {
+                    message = ByteBuffer.allocate(Math.max(size, 256)).order(ByteOrder.LITTLE_ENDIAN);
+                }
+                message.clear();
+                message.put(0, buffer, start, size);
+                message.limit(size);
+                buffer.position(start + size);
+                messageValid = true;
+                value = null;
+            } else if (mode == DecodeMode.REUSE) {
+                reusedValue = structParser.parse(buffer, reusedValue);
+                value = reusedValue;
+            } else {
+                value = structParser.parse(buffer);
+            }
             multiId = mId;
             updated = true;
             return true;
@@ -137,6 +297,7 @@ public class Subscription {
 
     public void update(Object val, int mId) {
         value = val;
+        messageValid = false;
         multiId = mId;
         updated = true;
     }
@@ -145,6 +306,10 @@ public class Subscription {
         return topicName;
     }
 
+    public DecodeMode getDecodeMode() {
+        return mode;
+    }
+
     public boolean isUpdated() {
         return updated;
     }
@@ -157,10 +322,29 @@ public class Subscription {
         return multiId;
     }
 
+    /**
+     * Get value of the last message. In {@link DecodeMode#REUSE} mode returned value is overwritten on next update.
+     */
     public Object getValue() {
+        if (value == null && messageValid) {
+            value = structParser.parse(message.position(0));
+        }
         return value;
     }
 
+    /**
+     * Get last raw message in {@link DecodeMode#LAZY} mode.
+     *
+     * @return raw message without header or null if not available
+     */
+    ByteBuffer getMessage() {
+        return messageValid ? message : null;
+    }
+
+    Parser getValueParser(Type type) {
+        return codec.getValueParser(type);
+    }
+
     void clearUpdated() {
         updated = false;
     }
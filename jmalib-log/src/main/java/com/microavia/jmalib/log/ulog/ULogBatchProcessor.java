@@ -0,0 +1,237 @@
+package com.microavia.jmalib.log.ulog;
+
+import com.microavia.jmalib.log.ByteBufferPool;
+import com.microavia.jmalib.log.ReaderOptions;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Processor of many logs with the same analysis function. Every log is opened by separate {@link ULogReader} and
+ * processed in a virtual thread, number of logs processed concurrently is limited. Read buffers are reused
+ * across readers.
+ *
+ * @param <R> type of analysis result
+ */
+public class ULogBatchProcessor<R> {
+    public interface Analyzer<R> {
+        /**
+         * Analyze single log. Reader is closed by the processor after return.
+         */
+        R analyze(ULogReader reader) throws Exception;
+    }
+
+    /**
+     * Result of processing of a single log.
+     */
+    public static class LogResult<R> {
+        private final Path path;
+        private final R result;
+        private final Exception exception;
+        private final List<Exception> errors;
+        private final long sizeBytes;
+        private final long timeNanos;
+
+        LogResult(Path path, R result, Exception exception, List<Exception> errors, long sizeBytes, long timeNanos) {
+            this.path = path;
+            this.result = result;
+            this.exception = exception;
+            this.errors = errors;
+            this.sizeBytes = sizeBytes;
+            this.timeNanos = timeNanos;
+        }
+
+        public Path getPath() {
+            return path;
+        }
+
+        /**
+         * @return result of analysis or null if processing failed
+         */
+        public R getResult() {
+            return result;
+        }
+
+        /**
+         * @return exception thrown by reader or analyzer, or null if log processed successfully
+         */
+        public Exception getException() {
+            return exception;
+        }
+
+        public boolean isSuccess() {
+            return exception == null;
+        }
+
+        /**
+         * @return non-fatal errors of the reader, see {@link ULogReader#getErrors()}
+         */
+        public List<Exception> getErrors() {
+            return errors;
+        }
+
+        public long getSizeBytes() {
+            return sizeBytes;
+        }
+
+        public long getTimeNanos() {
+            return timeNanos;
+        }
+    }
+
+    /**
+     * Results of processing of all logs.
+     */
+    public static class BatchResult<R> {
+        private final List<LogResult<R>> results;
+        private final long timeNanos;
+
+        BatchResult(List<LogResult<R>> results, long timeNanos) {
+            this.results = Collections.unmodifiableList(results);
+            this.timeNanos = timeNanos;
+        }
+
+        /**
+         * @return results in order of input paths
+         */
+        public List<LogResult<R>> getResults() {
+            return results;
+        }
+
+        public int getFailedCount() {
+            int n = 0;
+            for (var r : results) {
+                if (!r.isSuccess()) {
+                    n++;
+                }
+            }
+            return n;
+        }
+
+        public long getSizeBytes() {
+            long size = 0;
+            for (var r : results) {
+                size += r.getSizeBytes();
+            }
+            return size;
+        }
+
+        /**
+         * @return wall clock time of the whole batch
+         */
+        public long getTimeNanos() {
+            return timeNanos;
+        }
+
+        public double getLogsPerSecond() {
+            return timeNanos > 0 ? results.size() * 1e9 / timeNanos : 0.0;
+        }
+
+        public double getBytesPerSecond() {
+            return timeNanos > 0 ? getSizeBytes() * 1e9 / timeNanos : 0.0;
+        }
+    }
+
+    private final Analyzer<R> analyzer;
+    private final int concurrency;
+    private ReaderOptions readerOptions = new ReaderOptions();
+
+    /**
+     * @param analyzer    analysis function, called concurrently from different threads
+     * @param concurrency max number of logs processed concurrently
+     */
+    public ULogBatchProcessor(Analyzer<R> analyzer, int concurrency) {
+        if (concurrency <= 0) {
+            throw new IllegalArgumentException("Invalid concurrency: " + concurrency);
+        }
+        this.analyzer = analyzer;
+        this.concurrency = concurrency;
+    }
+
+    /**
+     * Set options for readers. If buffer pool is not set in options, pool shared by readers of the batch is used.
+     */
+    public ULogBatchProcessor<R> setReaderOptions(ReaderOptions readerOptions) {
+        this.readerOptions = readerOptions;
+        return this;
+    }
+
+    /**
+     * Process all logs and wait for completion. Failure of one log doesn't affect others, it is reported in
+     * the result of the log.
+     *
+     * @param paths log files
+     * @return results in order of paths
+     * @throws InterruptedException if interrupted while waiting, processing of remaining logs is cancelled
+     */
+    public BatchResult<R> process(List<Path> paths) throws InterruptedException {
+        var options = new ReaderOptions(readerOptions);
+        if (options.getBufferPool() == null) {
+            options.setBufferPool(new ByteBufferPool(options.getBufferSize(), concurrency, options.isDirectBuffers()));
+        }
+        var semaphore = new Semaphore(concurrency);
+        long start = System.nanoTime();
+        List<LogResult<R>> results = new ArrayList<>(paths.size());
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            List<Future<LogResult<R>>> futures = new ArrayList<>(paths.size());
+            for (Path path : paths) {
+                futures.add(executor.submit(() -> {
+                    semaphore.acquire();
+                    try {
+                        return processLog(path, options);
+                    } finally {
+                        semaphore.release();
+                    }
+                }));
+            }
+            try {
+                for (var future : futures) {
+                    results.add(future.get());
+                }
+            } catch (InterruptedException e) {
+                executor.shutdownNow();
+                throw e;
+            }
+        } catch (ExecutionException e) {
+            // processLog catches all exceptions
+            throw new IllegalStateException(e.getCause());
+        }
+        return new BatchResult<>(results, System.nanoTime() - start);
+    }
+
+    private LogResult<R> processLog(Path path, ReaderOptions options) {
+        long start = System.nanoTime();
+        long size = 0;
+        ULogReader reader = null;
+        R result = null;
+        Exception exception = null;
+        try {
+            size = Files.size(path);
+            reader = new ULogReader(path.toString(), options);
+            result = analyzer.analyze(reader);
+        } catch (Exception e) {
+            exception = e;
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (IOException e) {
+                    if (exception == null) {
+                        exception = e;
+                    }
+                }
+            }
+        }
+        List<Exception> errors = reader != null ? reader.getErrors() : List.of();
+        return new LogResult<>(path, exception == null ? result : null, exception, errors, size, System.nanoTime() - start);
+    }
+}
@@ -0,0 +1,280 @@
+package com.microavia.jmalib.log.ulog;
+
+import com.microavia.jmalib.log.ErrorLog;
+import com.microavia.jmalib.log.FormatErrorException;
+import com.microavia.jmalib.log.ReaderOptions;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Scanned ULog file: definitions, statistics and index of the log. Can be shared between threads, every thread opens
+ * its own {@link ULogReader} with separate position and subscriptions. Opening a reader of already scanned file is
+ * cheap, the log is not scanned again.
+ * <p>
+ * Definitions, index and errors are never modified after publishing, they are only replaced via volatile fields.
+ * If the file was opened in {@link ReaderOptions#setLazyScan(boolean) lazy scan} mode, data messages are scanned
+ * once on the first request of the number of messages or the index, by the requesting thread. Definitions found
+ * in the data section are parsed to a copy of the header, which is published with the index. Pyramids cache is
+ * guarded by a lock, columnar cache is loaded or built once by the first requesting reader.
+ */
+public class ULogFile {
+    private final Path path;
+    private final ReaderOptions options;
+    // Replaced by a copy with definitions from the data section when data scan of lazily scanned file is completed,
+    // never modified after publishing
+    volatile ULogHeader header;
+    final long dataStart;
+    private final long startMicroseconds;
+    // Updated once when data scan of lazily scanned file is completed
+    private volatile ULogIndex index;
+    private volatile boolean scanned;
+    private volatile long sizeUpdates;
+    private volatile long sizeMicroseconds;
+    // Copy of errors found by the scan, never modified after publishing
+    volatile ErrorLog errorLog;
+    private volatile List<Exception> errors;
+    /**
+     * Pyramids cache shared by readers, guarded by itself.
+     */
+    final Map<String, Map<Integer, Pyramid>> pyramids = new HashMap<>();
+    /**
+     * Columnar cache, loaded or built once by the first requesting reader.
+     */
+    private final AtomicBoolean columnCacheRequested = new AtomicBoolean();
+    private final CompletableFuture<ColumnCache> columnCache = new CompletableFuture<>();
+
+    interface ColumnCacheLoader {
+        /**
+         * @return cache or null if not available
+         */
+        ColumnCache load() throws IOException;
+    }
+
+    /**
+     * @param index   index of the log or only of definitions if data was not scanned yet
+     * @param scanned true if data was scanned
+     */
+    ULogFile(Path path, ReaderOptions options, ULogHeader header, ULogIndex index, boolean scanned, long dataStart,
+             long sizeUpdates, long startMicroseconds, long lastMicroseconds, ErrorLog errors) {
+        this.path = path;
+        this.options = new ReaderOptions(options);
+        this.header = header;
+        this.index = index;
+        this.scanned = scanned;
+        this.dataStart = dataStart;
+        this.sizeUpdates = sizeUpdates;
+        this.startMicroseconds = startMicroseconds;
+        this.sizeMicroseconds = lastMicroseconds - startMicroseconds;
+        setErrors(errors);
+    }
+
+    public static ULogFile open(String fileName) throws IOException, FormatErrorException {
+        return open(fileName, new ReaderOptions());
+    }
+
+    /**
+     * Scan the log, or load its index if enabled in options.
+     *
+     * @throws FormatErrorException if file is not a ULog
+     */
+    public static ULogFile open(String fileName, ReaderOptions options) throws IOException, FormatErrorException {
+        var reader = new ULogReader(fileName, options);
+        reader.close();
+        return reader.getFile();
+    }
+
+    /**
+     * Open new reader positioned at the start of the log, using options the file was opened with.
+     */
+    public ULogReader openReader() throws IOException {
+        return new ULogReader(this, options);
+    }
+
+    /**
+     * Open new reader positioned at the start of the log. Only IO options are used, parsing options are the same
+     * as for the file.
+     */
+    public ULogReader openReader(ReaderOptions options) throws IOException {
+        return new ULogReader(this, options);
+    }
+
+    /**
+     * Get index of the log, scan data messages if not scanned yet.
+     */
+    ULogIndex getIndex() throws IOException {
+        if (!scanned) {
+            synchronized (this) {
+                if (!scanned) {
+                    ULogReader scanner = new ULogReader(this, options);
+                    try {
+                        scanner.completeScan(index);
+                    } finally {
+                        scanner.close();
+                    }
+                }
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Get columnar cache, load or build it by the calling thread on first request. Other threads requesting the
+     * cache wait until it's available, other operations on the file are not blocked while cache is built.
+     *
+     * @param loader loads or builds the cache, called once
+     * @return cache or null if not available
+     */
+    ColumnCache getColumnCache(ColumnCacheLoader loader) throws IOException {
+        if (columnCacheRequested.compareAndSet(false, true)) {
+            ColumnCache cache = null;
+            try {
+                cache = loader.load();
+            } finally {
+                columnCache.complete(cache);
+            }
+            return cache;
+        }
+        try {
+            return columnCache.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    /**
+     * @return index of the log or null if data messages were not scanned yet
+     */
+    ULogIndex getScannedIndex() {
+        return scanned ? index : null;
+    }
+
+    void completeScan(ULogHeader header, ULogIndex index, long sizeUpdates, long lastMicroseconds, ErrorLog errors) {
+        this.header = header;
+        this.sizeUpdates = sizeUpdates;
+        this.sizeMicroseconds = lastMicroseconds - startMicroseconds;
+        setErrors(errors);
+        this.index = index;
+        scanned = true;
+    }
+
+    private void setErrors(ErrorLog errors) {
+        ErrorLog copy = new ErrorLog();
+        copy.addAll(errors);
+        this.errors = copy.getErrors();
+        this.errorLog = copy;
+    }
+
+    /**
+     * Check if data messages were scanned, i.e. number of messages and index are available without scanning.
+     */
+    public boolean isScanned() {
+        return scanned;
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    public String getFormat() {
+        return "ULog v" + header.logVersion;
+    }
+
+    public String getSystemName() {
+        return header.systemName;
+    }
+
+    public String getSystemConfig() {
+        return header.systemConfig;
+    }
+
+    /**
+     * Get number of data messages, scan data messages if not scanned yet.
+     *
+     * @throws UncheckedIOException if scanning failed
+     */
+    public long getSizeUpdates() {
+        getScannedIndexUnchecked();
+        return sizeUpdates;
+    }
+
+    /**
+     * Get gaps in the log reported by the logger, scan data messages if not scanned yet.
+     *
+     * @throws UncheckedIOException if scanning failed
+     */
+    public List<Dropout> getDropouts() {
+        return Collections.unmodifiableList(getScannedIndexUnchecked().dropouts);
+    }
+
+    /**
+     * Get text messages logged by the system, scan data messages if not scanned yet.
+     *
+     * @throws UncheckedIOException if scanning failed
+     */
+    public List<LogMessage> getLogMessages() {
+        return Collections.unmodifiableList(getScannedIndexUnchecked().logMessages);
+    }
+
+    private ULogIndex getScannedIndexUnchecked() {
+        try {
+            return getIndex();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public long getStartMicroseconds() {
+        return startMicroseconds;
+    }
+
+    public long getSizeMicroseconds() {
+        return sizeMicroseconds;
+    }
+
+    public long getUTCTimeReferenceMicroseconds() {
+        return header.utcTimeReference;
+    }
+
+    public Map<String, Object> getVersion() {
+        return Collections.unmodifiableMap(header.version);
+    }
+
+    public Map<String, Object> getParameters() {
+        return Collections.unmodifiableMap(header.parameters);
+    }
+
+    public Map<String, String> getFields() {
+        return Collections.unmodifiableMap(header.fieldsList);
+    }
+
+    /**
+     * Get errors found when the log was scanned, in lazy scan mode only errors found so far.
+     */
+    public List<Exception> getErrors() {
+        return errors;
+    }
+
+    /**
+     * Get errors found when the log was scanned with number of errors of every kind.
+     *
+     * @return copy of the errors
+     */
+    public ErrorLog getErrorLog() {
+        ErrorLog copy = new ErrorLog();
+        copy.addAll(errorLog);
+        return copy;
+    }
+}
@@ -0,0 +1,415 @@
+package com.microavia.jmalib.log.ulog;
+
+import com.microavia.jmalib.log.ErrorLog;
+import com.microavia.jmalib.log.FormatErrorException;
+import com.microavia.jmalib.log.ulog.model.ArrayType;
+import com.microavia.jmalib.log.ulog.model.StructType;
+import com.microavia.jmalib.log.ulog.model.Type;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.Map;
+
+/**
+ * Log definitions: format version, types, topics, info and parameters. Built from definition messages in
+ * order of appearance, shared by file and stream readers.
+ */
+class ULogHeader {
+    static final int FILE_HEADER_SIZE = 4;
+    static final int MESSAGE_HEADER_SIZE = 4;
+    static final byte SYNC_BYTE = (byte) '>';
+    static final byte MESSAGE_TYPE_STRUCT = (byte) 'F';
+    static final byte MESSAGE_TYPE_TOPIC = (byte) 'A';
+    static final byte MESSAGE_TYPE_DATA = (byte) 'D';
+    static final byte MESSAGE_TYPE_INFO = (byte) 'I';
+    static final byte MESSAGE_TYPE_PARAMETER = (byte) 'P';
+    static final byte MESSAGE_TYPE_FLAG_BITS = (byte) 'B';
+    static final byte MESSAGE_TYPE_SYNC = (byte) 'S';
+    static final byte MESSAGE_TYPE_DROPOUT = (byte) 'O';
+    static final byte MESSAGE_TYPE_LOGGING = (byte) 'L';
+    static final byte[] SYNC_MAGIC = {0x2F, 0x73, 0x13, 0x20, 0x25, 0x0C, (byte) 0xBB, 0x12};
+    /**
+     * Size of the sync message including header.
+     */
+    static final int SYNC_MESSAGE_SIZE = MESSAGE_HEADER_SIZE + SYNC_MAGIC.length;
+    /**
+     * Incompatible flag: data appended to the log after its end at the appended offsets.
+     */
+    private static final long INCOMPAT_FLAG_DATA_APPENDED = 1;
+    private static final int APPENDED_OFFSETS_NUM = 3;
+    private static final long SYNC_PATTERN = 0x0101010101010101L * SYNC_BYTE;
+
+    Codec codec = new Codec();
+    final Map<String, Topic> topicByName = new HashMap<>();
+    final Map<String, String> fieldsList = new HashMap<>();
+    final Map<String, Object> version = new HashMap<>();
+    final Map<String, Object> parameters = new HashMap<>();
+    String systemName = "";
+    String systemConfig = "";
+    long utcTimeReference = -1;
+    int logVersion = 0;
+    int msgDataTimestampOffset = 3;
+    long compatFlags = 0;
+    long incompatFlags = 0;
+    /**
+     * Positions of data appended to the log, the message before each position may be truncated.
+     */
+    long[] appendedOffsets = new long[0];
+    /**
+     * Set by the scan when first sync message found, after that corrupted data is skipped up to the next sync
+     * message. Readers of shared header keep their own flag for sync messages found after opening.
+     */
+    boolean syncMessages = false;
+    ErrorLog errors;
+    private MessageDigest schemaDigest;
+
+    /**
+     * @param errors log to add non-fatal errors to
+     */
+    ULogHeader(ErrorLog errors) {
+        this.errors = errors;
+        try {
+            schemaDigest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Copy definitions to parse more definitions without modifying this header, which may be used by other threads.
+     * Maps are copied, codec is shared until a new type is defined, then it's replaced with a modifiable copy, see
+     * {@link #internCodec()}.
+     */
+    ULogHeader copy(ErrorLog errors) {
+        ULogHeader copy = new ULogHeader(errors);
+        copy.codec = codec;
+        copy.schemaDigest = cloneDigest();
+        copy.topicByName.putAll(topicByName);
+        copy.fieldsList.putAll(fieldsList);
+        copy.version.putAll(version);
+        copy.parameters.putAll(parameters);
+        copy.systemName = systemName;
+        copy.systemConfig = systemConfig;
+        copy.utcTimeReference = utcTimeReference;
+        copy.logVersion = logVersion;
+        copy.msgDataTimestampOffset = msgDataTimestampOffset;
+        copy.compatFlags = compatFlags;
+        copy.incompatFlags = incompatFlags;
+        copy.appendedOffsets = appendedOffsets;
+        copy.syncMessages = syncMessages;
+        return copy;
+    }
+
+    /**
+     * Replace codec with the shared one from {@link SchemaRegistry} if log with the same definitions was already
+     * opened. Must be called after all definitions are parsed, codec can't be modified after that.
+     */
+    void internCodec() {
+        String key = HexFormat.of().formatHex(cloneDigest().digest()) + (codec.isCompiledParsers() ? ":compiled" : "");
+        codec = SchemaRegistry.intern(key, codec);
+    }
+
+    private MessageDigest cloneDigest() {
+        try {
+            return (MessageDigest) schemaDigest.clone();
+        } catch (CloneNotSupportedException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private void addStructType(String typeName, String fields) {
+        if (codec.isFrozen()) {
+            // Type defined in the data section of lazily scanned log, interned codec may be used by other threads
+            codec = codec.copy();
+        }
+        codec.addStructType(typeName, fields);
+        schemaDigest.update(typeName.getBytes(StandardCharsets.UTF_8));
+        schemaDigest.update((byte) ':');
+        schemaDigest.update(fields.getBytes(StandardCharsets.UTF_8));
+        schemaDigest.update((byte) '\n');
+    }
+
+    /**
+     * Parse file header, {@link #FILE_HEADER_SIZE} bytes are read from the buffer.
+     *
+     * @throws FormatErrorException if format is not supported
+     */
+    void parseFileHeader(ByteBuffer buffer) throws FormatErrorException {
+        byte[] logVersionBytes = new byte[FILE_HEADER_SIZE];
+        buffer.get(logVersionBytes);
+        String logVersionStr = new String(logVersionBytes, Charset.forName("latin1"));
+        if (!logVersionStr.startsWith("ULG")) {
+            throw new FormatErrorException("Unsupported file format");
+        }
+        try {
+            logVersion = Integer.parseInt(logVersionStr.substring(3));
+        } catch (NumberFormatException e) {
+            throw new FormatErrorException("Unsupported file format");
+        }
+        msgDataTimestampOffset = logVersion >= 2 ? 3 : 2;
+    }
+
+    /**
+     * Find start of the next message after corrupted data: sync byte followed by a message type. Buffer is searched
+     * word at a time for sync byte candidates, buffer must be little endian.
+     *
+     * @param from start of search
+     * @param to   end of search, exclusive
+     * @return position of the message start or -1 if not found, last byte is not checked as message type is unknown
+     */
+    static int findMessageStart(ByteBuffer buffer, int from, int to) {
+        int i = from;
+        while (i + 9 <= to) {
+            // Bytes equal to sync byte become zero, find zero bytes, may have false positives above real zero byte
+            long x = buffer.getLong(i) ^ SYNC_PATTERN;
+            long found = (x - 0x0101010101010101L) & ~x & 0x8080808080808080L;
+            while (found != 0) {
+                int p = i + (Long.numberOfTrailingZeros(found) >>> 3);
+                if (buffer.get(p) == SYNC_BYTE && isMessageType(buffer.get(p + 1))) {
+                    return p;
+                }
+                found &= found - 1;
+            }
+            i += 8;
+        }
+        for (; i + 1 < to; i++) {
+            if (buffer.get(i) == SYNC_BYTE && isMessageType(buffer.get(i + 1))) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Find start of the next sync message after corrupted data.
+     *
+     * @return position of the sync message, or position of message start if it's too close to the end of search to
+     * check it, or -1 if not found
+     */
+    static int findSyncMessage(ByteBuffer buffer, int from, int to) {
+        int p = from;
+        while ((p = findMessageStart(buffer, p, to)) >= 0) {
+            if (p + SYNC_MESSAGE_SIZE > to || isSyncMessage(buffer, p)) {
+                return p;
+            }
+            p++;
+        }
+        return -1;
+    }
+
+    /**
+     * Check if buffer contains sync message at the position, whole message must be available.
+     */
+    static boolean isSyncMessage(ByteBuffer buffer, int p) {
+        if (buffer.get(p) != SYNC_BYTE || buffer.get(p + 1) != MESSAGE_TYPE_SYNC || buffer.getShort(p + 2) != SYNC_MAGIC.length) {
+            return false;
+        }
+        for (int i = 0; i < SYNC_MAGIC.length; i++) {
+            if (buffer.get(p + MESSAGE_HEADER_SIZE + i) != SYNC_MAGIC[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Get start of data appended inside of the message, i.e. the message was truncated and data appended after it.
+     *
+     * @param start position of the message
+     * @param end   end of the message
+     * @return position of appended data or -1 if the message is complete
+     */
+    long getAppendedOffset(long start, long end) {
+        for (long offset : appendedOffsets) {
+            if (offset > start && offset < end) {
+                return offset;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Check if byte can be a message type, all message types are upper case letters.
+     */
+    static boolean isMessageType(byte b) {
+        return b >= 'A' && b <= 'Z';
+    }
+
+    /**
+     * Get topic id of data message.
+     *
+     * @param offset offset of data message payload in buffer
+     */
+    int getDataMsgId(ByteBuffer buffer, int offset) {
+        return logVersion >= 2 ? (buffer.getShort(offset) & 0xFFFF) : (buffer.get(offset) & 0xFF);
+    }
+
+    /**
+     * Handle definition (non-data) message. Buffer must be positioned at message payload, after return it's
+     * positioned at the end of the message.
+     *
+     * @param pos     position of the message in log, for error messages
+     * @param msgType message type
+     * @param msgSize message payload size
+     */
+    void handleDefinition(ByteBuffer buffer, long pos, int msgType, int msgSize) {
+        int start = buffer.position();
+        switch (msgType) {
+            case MESSAGE_TYPE_STRUCT: {
+                if (logVersion <= 1) {
+                    int msgId = buffer.get() & 0xFF;
+                    int formatLen = buffer.getShort() & 0xFFFF;
+                    String descrStr = getString(buffer, formatLen);
+                    String[] descr = getString(buffer, formatLen).split(":");
+                    if (descr.length <= 1) {
+                        errors.add(ErrorLog.Kind.DEFINITION, pos, String.format("Invalid struct description: %s", descrStr));
+                        break;
+                    }
+                    addStructType(descr[0], descr[1]);
+                } else {
+                    String descrStr = getString(buffer, msgSize);
+                    String[] descr = descrStr.split(":");
+                    if (descr.length <= 1) {
+                        errors.add(ErrorLog.Kind.DEFINITION, pos, String.format("Invalid struct description: %s", descrStr));
+                        break;
+                    }
+
+                    addStructType(descr[0], descr[1]);
+                }
+                break;
+            }
+            case MESSAGE_TYPE_TOPIC: {
+                int msgId = buffer.getShort() & 0xFFFF;
+                String[] descr = getString(buffer, msgSize - 2).split(":");
+                String name = descr[0];
+                String typeName = descr[1];
+                Type typeDescr = codec.getTypeDescription(typeName);
+                if (typeDescr == null) {
+                    errors.add(ErrorLog.Kind.DEFINITION, pos, String.format("Unknown topic struct typeName: %s", typeName));
+                    break;
+                }
+                Topic topic = new Topic(name, typeDescr.getTypeName(), msgId);
+                topicByName.put(name, topic);
+                addFieldsToList(pos, name, typeDescr);
+                break;
+            }
+            case MESSAGE_TYPE_INFO: {
+                int keyLen = buffer.get() & 0xFF;
+                String[] keyDescr = getString(buffer, keyLen).split(" ");
+                String key = keyDescr[1];
+                Parser parser = codec.getValueParser(keyDescr[0]);
+                if (parser == null) {
+                    errors.add(ErrorLog.Kind.DEFINITION, pos, "Error parsing info: " + key);
+                    break;
+                }
+                Object value = parser.parse(buffer);
+                switch (key) {
+                    case "sys_name":
+                        systemName = codec.objectToString(value);
+                        break;
+                    case "sys_config":
+                        systemConfig = codec.objectToString(value);
+                        break;
+                    case "ver_hw":
+                        version.put("HW", codec.objectToString(value));
+                        break;
+                    case "ver_sw":
+                        version.put("FW", codec.objectToString(value));
+                        break;
+                    case "time_ref_utc":
+                        utcTimeReference = ((Number) value).longValue();
+                        break;
+                }
+                break;
+            }
+            case MESSAGE_TYPE_PARAMETER: {
+                int keyLen = buffer.get() & 0xFF;
+                String[] keyDescr = getString(buffer, keyLen).split(" ");
+                String key = keyDescr[1];
+                Parser parser = codec.getValueParser(keyDescr[0]);
+                if (parser == null) {
+                    errors.add(ErrorLog.Kind.DEFINITION, pos, "Error parsing parameter: " + key);
+                    break;
+                }
+                Object value = parser.parse(buffer);
+                parameters.put(key, value);
+                break;
+            }
+            case MESSAGE_TYPE_FLAG_BITS: {
+                compatFlags = buffer.getLong();
+                incompatFlags = buffer.getLong();
+                long[] offsets = new long[APPENDED_OFFSETS_NUM];
+                int n = 0;
+                for (int i = 0; i < APPENDED_OFFSETS_NUM; i++) {
+                    long offset = buffer.getLong();
+                    if (offset > 0) {
+                        offsets[n++] = offset;
+                    }
+                }
+                appendedOffsets = (incompatFlags & INCOMPAT_FLAG_DATA_APPENDED) != 0 ? Arrays.copyOf(offsets, n) : new long[0];
+                if ((incompatFlags & ~INCOMPAT_FLAG_DATA_APPENDED) != 0) {
+                    errors.add(ErrorLog.Kind.DEFINITION, pos, String.format("Unsupported incompatible flags: 0x%016X", incompatFlags));
+                }
+                break;
+            }
+            case MESSAGE_TYPE_SYNC:
+            case MESSAGE_TYPE_DROPOUT:
+            case MESSAGE_TYPE_LOGGING:
+                // Data section messages, handled by readers if needed
+                buffer.position(buffer.position() + msgSize);
+                break;
+            default:
+                buffer.position(buffer.position() + msgSize);
+                errors.add(ErrorLog.Kind.UNKNOWN_MESSAGE, pos, "Unknown message typeName: " + msgType);
+                break;
+        }
+        int sizeParsed = buffer.position() - start;
+        if (sizeParsed != msgSize) {
+            errors.add(ErrorLog.Kind.SIZE_MISMATCH, pos, "Message size mismatch, parsed: " + sizeParsed + ", msg size: " + msgSize + ", msgType: " + msgType);
+            buffer.position(start + msgSize);
+        }
+    }
+
+    private void addFieldsToList(long pos, String path, Type typeDescr) {
+        switch (typeDescr.getTypeClass()) {
+            case STRUCT: {
+                for (var field : ((StructType) typeDescr).getFields()) {
+                    if (!field.name().startsWith("_")) {
+                        var type = codec.getTypeDescription(field.typeName());
+                        if (type == null) {
+                            errors.add(ErrorLog.Kind.DEFINITION, pos, "Invalid type of field " + field.typeName() + ": " + field.name());
+                            break;
+                        }
+                        addFieldsToList(pos, String.format("%s.%s", path, field.name()), type);
+                    }
+                }
+                break;
+            }
+            case ARRAY: {
+                var arrDescr = ((ArrayType) typeDescr);
+                int size = arrDescr.getSize();
+                for (int i = 0; i < size; i++) {
+                    addFieldsToList(pos, String.format("%s[%s]", path, i), codec.getTypeDescription(arrDescr.getElementType()));
+                }
+                break;
+            }
+            default: {
+                fieldsList.put(path, typeDescr.getTypeName());
+                break;
+            }
+        }
+    }
+
+    private String getString(ByteBuffer buffer, int len) {
+        byte[] strBuf = new byte[len];
+        buffer.get(strBuf);
+        String[] p = new String(strBuf, codec.getCharset()).split("\0");
+        return p.length > 0 ? p[0] : "";
+    }
+}
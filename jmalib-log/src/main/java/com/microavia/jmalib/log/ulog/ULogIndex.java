@@ -0,0 +1,349 @@
+package com.microavia.jmalib.log.ulog;
+
+import com.microavia.jmalib.log.ErrorLog;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+
+/**
+ * Results of the full log scan: statistics and positions of all non-data messages, so header can be restored
+ * without reading data messages, and sparse time index of data messages for fast seeking. Time index entries
+ * split data section to blocks, for every topic a bitmap of blocks containing its messages is stored, so readers
+ * can skip blocks without messages of subscribed topics.
+ * Can be stored to a sidecar file next to the log and loaded on next opening.
+ */
+class ULogIndex {
+    private static final int MAGIC = 0x554C4749;    // "ULGI"
+    private static final int FORMAT_VERSION = 5;
+    /**
+     * Minimal distance in bytes between time index entries.
+     */
+    private static final int TIME_INDEX_STEP = 32768;
+
+    long dataStart = 0;
+    long sizeUpdates = 0;
+    long startMicroseconds = -1;
+    long lastMicroseconds = Long.MIN_VALUE;
+    private long[] definitionOffsets = new long[256];
+    private int definitionsNum = 0;
+    private long[] timeIndexOffsets = new long[256];
+    private long[] timeIndexTimes = new long[256];
+    private int timeIndexNum = 0;
+    private long timeMax = Long.MIN_VALUE;
+    private final Map<Integer, BitSet> topicBlocks = new HashMap<>();
+    final ErrorLog errors = new ErrorLog();
+    final List<Dropout> dropouts = new ArrayList<>();
+    final List<LogMessage> logMessages = new ArrayList<>();
+    boolean syncMessages = false;
+
+    /**
+     * Create new index containing only definitions of this one.
+     */
+    ULogIndex copyDefinitions() {
+        ULogIndex copy = new ULogIndex();
+        copy.definitionOffsets = Arrays.copyOf(definitionOffsets, Math.max(definitionsNum, 1));
+        copy.definitionsNum = definitionsNum;
+        copy.dropouts.addAll(dropouts);
+        copy.logMessages.addAll(logMessages);
+        copy.syncMessages = syncMessages;
+        return copy;
+    }
+
+    void addDefinition(long pos) {
+        if (definitionsNum == definitionOffsets.length) {
+            definitionOffsets = Arrays.copyOf(definitionOffsets, definitionsNum * 2);
+        }
+        definitionOffsets[definitionsNum++] = pos;
+    }
+
+    /**
+     * Add data message to the time index. Only messages located at least {@link #TIME_INDEX_STEP} bytes after
+     * previous entry are stored, each entry holds max timestamp of all data messages before it.
+     *
+     * @param pos       position of the message
+     * @param timestamp timestamp of the message
+     * @param msgId     topic id of the message
+     */
+    void addData(long pos, long timestamp, int msgId) {
+        if (timeIndexNum == 0 || pos - timeIndexOffsets[timeIndexNum - 1] >= TIME_INDEX_STEP) {
+            if (timeIndexNum == timeIndexOffsets.length) {
+                timeIndexOffsets = Arrays.copyOf(timeIndexOffsets, timeIndexNum * 2);
+                timeIndexTimes = Arrays.copyOf(timeIndexTimes, timeIndexNum * 2);
+            }
+            timeIndexOffsets[timeIndexNum] = pos;
+            timeIndexTimes[timeIndexNum] = timeMax;
+            timeIndexNum++;
+        }
+        timeMax = Math.max(timeMax, timestamp);
+        topicBlocks.computeIfAbsent(msgId, k -> new BitSet()).set(timeIndexNum - 1);
+    }
+
+    /**
+     * Find block containing specified position.
+     *
+     * @return block index or -1 if position is before the first block
+     */
+    int findBlock(long pos) {
+        int lo = 0;
+        int hi = timeIndexNum - 1;
+        int found = -1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            if (timeIndexOffsets[mid] <= pos) {
+                found = mid;
+                lo = mid + 1;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        return found;
+    }
+
+    int getBlocksNum() {
+        return timeIndexNum;
+    }
+
+    long getBlockStart(int block) {
+        return timeIndexOffsets[block];
+    }
+
+    /**
+     * @return position of the end of the block, Long.MAX_VALUE for the last block
+     */
+    long getBlockEnd(int block) {
+        return block + 1 < timeIndexNum ? timeIndexOffsets[block + 1] : Long.MAX_VALUE;
+    }
+
+    /**
+     * Get blocks containing messages of any of specified topics.
+     *
+     * @param msgIds topic ids
+     * @return bitmap of block indices
+     */
+    BitSet getTopicsBlocks(Collection<Integer> msgIds) {
+        BitSet blocks = new BitSet();
+        for (int msgId : msgIds) {
+            BitSet b = topicBlocks.get(msgId);
+            if (b != null) {
+                blocks.or(b);
+            }
+        }
+        return blocks;
+    }
+
+    /**
+     * Find position to start scanning from when seeking to specified time. All data messages before returned
+     * position have timestamps less than seek time.
+     *
+     * @param seekTime time to seek in us
+     * @return position of data message or data start if time index is empty
+     */
+    long findSeekPosition(long seekTime) {
+        // Max timestamps are not decreasing, find last entry with max timestamp before it less than seekTime
+        int lo = 0;
+        int hi = timeIndexNum - 1;
+        int found = -1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            if (timeIndexTimes[mid] < seekTime) {
+                found = mid;
+                lo = mid + 1;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        return found >= 0 ? timeIndexOffsets[found] : dataStart;
+    }
+
+    /**
+     * Get positions of data messages in the time index, in file order. Can be used as boundaries of chunks of
+     * the data section.
+     */
+    long[] getTimeIndexOffsets() {
+        return Arrays.copyOf(timeIndexOffsets, timeIndexNum);
+    }
+
+    /**
+     * Get positions of all non-data messages in the log, in file order.
+     */
+    long[] getDefinitionOffsets() {
+        return Arrays.copyOf(definitionOffsets, definitionsNum);
+    }
+
+    static Path getIndexPath(Path logPath) {
+        return logPath.resolveSibling(logPath.getFileName() + ".idx");
+    }
+
+    /**
+     * Load index of the log file if it exists and matches size and modification time of the log.
+     *
+     * @return index or null if index file doesn't exist, invalid or outdated, then the log is scanned again
+     */
+    static ULogIndex load(Path logPath) {
+        Path indexPath = getIndexPath(logPath);
+        if (!Files.isRegularFile(indexPath)) {
+            return null;
+        }
+        try (var in = new DataInputStream(new BufferedInputStream(Files.newInputStream(indexPath)))) {
+            long indexSize = Files.size(indexPath);
+            if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION) {
+                return null;
+            }
+            if (in.readLong() != Files.size(logPath) || in.readLong() != Files.getLastModifiedTime(logPath).toMillis()) {
+                return null;
+            }
+            var index = new ULogIndex();
+            index.dataStart = in.readLong();
+            index.sizeUpdates = in.readLong();
+            index.startMicroseconds = in.readLong();
+            index.lastMicroseconds = in.readLong();
+            int n = readLength(in, 8, indexSize);
+            index.definitionOffsets = new long[Math.max(n, 1)];
+            for (int i = 0; i < n; i++) {
+                index.definitionOffsets[i] = in.readLong();
+            }
+            index.definitionsNum = n;
+            n = readLength(in, 16, indexSize);
+            index.timeIndexOffsets = new long[Math.max(n, 1)];
+            index.timeIndexTimes = new long[Math.max(n, 1)];
+            for (int i = 0; i < n; i++) {
+                index.timeIndexOffsets[i] = in.readLong();
+                index.timeIndexTimes[i] = in.readLong();
+            }
+            index.timeIndexNum = n;
+            int topicsNum = readLength(in, 8, indexSize);
+            for (int i = 0; i < topicsNum; i++) {
+                int msgId = in.readInt();
+                long[] words = new long[readLength(in, 8, indexSize)];
+                for (int j = 0; j < words.length; j++) {
+                    words[j] = in.readLong();
+                }
+                index.topicBlocks.put(msgId, BitSet.valueOf(words));
+            }
+            int dropoutsNum = readLength(in, 16, indexSize);
+            for (int i = 0; i < dropoutsNum; i++) {
+                index.dropouts.add(new Dropout(in.readLong(), in.readLong()));
+            }
+            int logMessagesNum = readLength(in, 11, indexSize);
+            for (int i = 0; i < logMessagesNum; i++) {
+                index.logMessages.add(new LogMessage(in.readLong(), in.readUnsignedByte(), in.readUTF()));
+            }
+            index.syncMessages = in.readBoolean();
+            long[] counts = new long[in.readInt()];
+            if (counts.length != ErrorLog.Kind.values().length) {
+                return null;
+            }
+            for (int i = 0; i < counts.length; i++) {
+                counts[i] = in.readLong();
+            }
+            int errorsNum = readLength(in, 11, indexSize);
+            for (int i = 0; i < errorsNum; i++) {
+                int kindId = in.readUnsignedByte();
+                if (kindId >= counts.length) {
+                    return null;
+                }
+                var kind = ErrorLog.Kind.values()[kindId];
+                index.errors.add(kind, in.readLong(), in.readUTF());
+                counts[kind.ordinal()]--;
+            }
+            // Errors dropped from the bounded log are only counted
+            for (int i = 0; i < counts.length; i++) {
+                if (counts[i] < 0) {
+                    return null;
+                }
+                index.errors.addCount(ErrorLog.Kind.values()[i], counts[i]);
+            }
+            return index;
+        } catch (IOException | RuntimeException e) {
+            // Corrupted index is rebuilt
+            return null;
+        }
+    }
+
+    /**
+     * Read number of items, items of the given min size must fit in the index file.
+     *
+     * @throws IOException if number is invalid
+     */
+    private static int readLength(DataInputStream in, int itemSize, long indexSize) throws IOException {
+        int n = in.readInt();
+        if (n < 0 || (long) n * itemSize > indexSize) {
+            throw new IOException("Invalid length: " + n);
+        }
+        return n;
+    }
+
+    /**
+     * Store index to the sidecar file. File is written to temporary file first and then renamed, so concurrent
+     * readers never see partially written index, temporary file is deleted if index can't be written.
+     */
+    void save(Path logPath) throws IOException {
+        Path indexPath = getIndexPath(logPath).toAbsolutePath();
+        // Unique temporary file, so concurrent writers of the index don't interfere
+        Path tmpPath = Files.createTempFile(indexPath.getParent(), indexPath.getFileName().toString(), ".tmp");
+        boolean saved = false;
+        try {
+            try (var out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmpPath)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(FORMAT_VERSION);
+                out.writeLong(Files.size(logPath));
+                out.writeLong(Files.getLastModifiedTime(logPath).toMillis());
+                out.writeLong(dataStart);
+                out.writeLong(sizeUpdates);
+                out.writeLong(startMicroseconds);
+                out.writeLong(lastMicroseconds);
+                out.writeInt(definitionsNum);
+                for (int i = 0; i < definitionsNum; i++) {
+                    out.writeLong(definitionOffsets[i]);
+                }
+                out.writeInt(timeIndexNum);
+                for (int i = 0; i < timeIndexNum; i++) {
+                    out.writeLong(timeIndexOffsets[i]);
+                    out.writeLong(timeIndexTimes[i]);
+                }
+                out.writeInt(topicBlocks.size());
+                for (var entry : topicBlocks.entrySet()) {
+                    out.writeInt(entry.getKey());
+                    long[] words = entry.getValue().toLongArray();
+                    out.writeInt(words.length);
+                    for (long word : words) {
+                        out.writeLong(word);
+                    }
+                }
+                out.writeInt(dropouts.size());
+                for (Dropout dropout : dropouts) {
+                    out.writeLong(dropout.timestamp());
+                    out.writeLong(dropout.durationMicroseconds());
+                }
+                out.writeInt(logMessages.size());
+                for (LogMessage message : logMessages) {
+                    out.writeLong(message.timestamp());
+                    out.writeByte(message.level());
+                    out.writeUTF(message.message());
+                }
+                out.writeBoolean(syncMessages);
+                var kinds = ErrorLog.Kind.values();
+                out.writeInt(kinds.length);
+                for (var kind : kinds) {
+                    out.writeLong(errors.getCount(kind));
+                }
+                var records = errors.getRecords();
+                out.writeInt(records.size());
+                for (var error : records) {
+                    out.writeByte(error.kind().ordinal());
+                    out.writeLong(error.position());
+                    out.writeUTF(error.message());
+                }
+            }
+            Files.move(tmpPath, indexPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            saved = true;
+        } finally {
+            if (!saved) {
+                Files.deleteIfExists(tmpPath);
+            }
+        }
+    }
+}
@@ -0,0 +1,295 @@
+package com.microavia.jmalib.log.ulog;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Single pass processing of a log by several independent analyzers. Reader decodes every message once and
+ * publishes it to a ring buffer, every analyzer consumes the buffer in its own thread. Messages are delivered to
+ * every analyzer in log order, reader waits for the slowest analyzer when the buffer is full.
+ * <p>
+ * Decoded values are shared between analyzers and must not be modified. Use getters created by
+ * {@link #createGetter(String, String)} and {@link Getter#getFrom(Object)} to access fields of the values.
+ */
+public class ULogPipeline {
+    public interface Handler {
+        /**
+         * Handle message. Message object is reused after return, its value may be retained.
+         */
+        void handle(Message message) throws Exception;
+    }
+
+    /**
+     * Message published to analyzers.
+     */
+    public static class Message {
+        private String topicName;
+        private int topicIdx;
+        private int multiId;
+        private long timestamp;
+        private Object value;
+
+        public String getTopicName() {
+            return topicName;
+        }
+
+        /**
+         * Get multi instance id, including main instance flag, see {@link Subscription#getMultiId()}.
+         */
+        public int getMultiId() {
+            return multiId;
+        }
+
+        public long getTimestamp() {
+            return timestamp;
+        }
+
+        /**
+         * Get decoded value of the whole topic, read only.
+         */
+        public Object getValue() {
+            return value;
+        }
+    }
+
+    /**
+     * Analyzer registered in the pipeline, consumes messages of its topics in a separate thread.
+     */
+    public class Analyzer {
+        private final String name;
+        private Handler[][] handlers = new Handler[0][];
+        private final AtomicLong sequence = new AtomicLong();
+        private volatile Exception exception = null;
+
+        private Analyzer(String name) {
+            this.name = name;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Add handler of messages of the topic.
+         *
+         * @throws SubscriptionException if topic not found
+         */
+        public Analyzer on(String topicName, Handler handler) {
+            int idx = subscribe(topicName);
+            if (idx >= handlers.length) {
+                handlers = Arrays.copyOf(handlers, idx + 1);
+            }
+            Handler[] hs = handlers[idx] == null ? new Handler[0] : handlers[idx];
+            hs = Arrays.copyOf(hs, hs.length + 1);
+            hs[hs.length - 1] = handler;
+            handlers[idx] = hs;
+            return this;
+        }
+
+        /**
+         * @return exception thrown by a handler during last run or null
+         */
+        public Exception getException() {
+            return exception;
+        }
+
+        private void consume() {
+            long seq = sequence.get();
+            int idle = 0;
+            try {
+                while (true) {
+                    boolean done = finished;
+                    long available = published.get();
+                    if (seq > available) {
+                        if (done) {
+                            break;
+                        }
+                        idle = idle(idle);
+                        continue;
+                    }
+                    idle = 0;
+                    for (; seq <= available; seq++) {
+                        Message msg = ring[(int) (seq & mask)];
+                        if (msg.topicIdx < handlers.length && handlers[msg.topicIdx] != null) {
+                            for (Handler h : handlers[msg.topicIdx]) {
+                                h.handle(msg);
+                            }
+                        }
+                    }
+                    sequence.set(seq);
+                }
+            } catch (Throwable e) {
+                // Errors are wrapped, so failure of analyzer thread is reported by run() too
+                exception = e instanceof Exception ex ? ex : new RuntimeException("Handler error", e);
+            } finally {
+                // Don't hold the reader after completion or failure
+                sequence.set(Long.MAX_VALUE);
+            }
+        }
+    }
+
+    private final ULogReader reader;
+    private final Message[] ring;
+    private final int mask;
+    private final List<Analyzer> analyzers = new ArrayList<>();
+    private final List<Subscription> subscriptions = new ArrayList<>();
+    private final Map<String, Integer> topicIndex = new HashMap<>();
+    private final AtomicLong published = new AtomicLong(-1);
+    private volatile boolean finished = false;
+
+    /**
+     * @param reader     reader of the log, subscriptions are added to it when analyzers register handlers
+     * @param bufferSize number of messages in the ring buffer, rounded up to power of two
+     */
+    public ULogPipeline(ULogReader reader, int bufferSize) {
+        if (bufferSize <= 0) {
+            throw new IllegalArgumentException("Invalid buffer size: " + bufferSize);
+        }
+        this.reader = reader;
+        int size = bufferSize == 1 ? 1 : Integer.highestOneBit(bufferSize - 1) << 1;
+        ring = new Message[size];
+        for (int i = 0; i < size; i++) {
+            ring[i] = new Message();
+        }
+        mask = size - 1;
+    }
+
+    public Analyzer addAnalyzer(String name) {
+        var analyzer = new Analyzer(name);
+        analyzers.add(analyzer);
+        return analyzer;
+    }
+
+    public List<Analyzer> getAnalyzers() {
+        return analyzers;
+    }
+
+    /**
+     * Create getter of the topic field for use with {@link Getter#getFrom(Object)} on message values.
+     *
+     * @throws SubscriptionException if topic or field not found
+     */
+    public Getter createGetter(String topicName, String path) {
+        subscribe(topicName);
+        return subscriptions.get(topicIndex.get(topicName)).createGetter(path);
+    }
+
+    private int subscribe(String topicName) {
+        Integer idx = topicIndex.get(topicName);
+        if (idx == null) {
+            var sub = reader.addSubscription(topicName, DecodeMode.EAGER);
+            if (sub.getDecodeMode() != DecodeMode.EAGER) {
+                // Values of other modes are not preserved after next update
+                throw new SubscriptionException("Topic is already subscribed in " + sub.getDecodeMode() + " mode: " + topicName);
+            }
+            idx = subscriptions.size();
+            subscriptions.add(sub);
+            topicIndex.put(topicName, idx);
+        }
+        return idx;
+    }
+
+    /**
+     * Process the whole log, returns when all analyzers processed all messages.
+     *
+     * @throws ExecutionException if any of analyzers failed, other analyzers still receive all messages
+     */
+    public void run() throws IOException, ExecutionException, InterruptedException {
+        published.set(-1);
+        finished = false;
+        List<Thread> threads = new ArrayList<>();
+        for (Analyzer analyzer : analyzers) {
+            analyzer.sequence.set(0);
+            analyzer.exception = null;
+            threads.add(Thread.ofPlatform().name("ulog-analyzer-" + analyzer.name).start(analyzer::consume));
+        }
+        try {
+            produce();
+        } finally {
+            finished = true;
+            for (Thread thread : threads) {
+                thread.join();
+            }
+        }
+        ExecutionException error = null;
+        for (Analyzer analyzer : analyzers) {
+            if (analyzer.exception != null) {
+                if (error == null) {
+                    error = new ExecutionException("Analyzer failed: " + analyzer.name, analyzer.exception);
+                } else {
+                    error.addSuppressed(analyzer.exception);
+                }
+            }
+        }
+        if (error != null) {
+            throw error;
+        }
+    }
+
+    private void produce() throws IOException {
+        reader.seek(0);
+        long seq = published.get();
+        long gatingSeq = -1;
+        try {
+            while (true) {
+                long t = reader.readUpdate();
+                for (Subscription sub : reader.getUpdatedSubscriptions()) {
+                    Integer idx = topicIndex.get(sub.getTopicName());
+                    if (idx == null) {
+                        // Subscribed by someone else
+                        continue;
+                    }
+                    long next = seq + 1;
+                    int idle = 0;
+                    while (next - gatingSeq > ring.length) {
+                        gatingSeq = getMinSequence() - 1;
+                        if (next - gatingSeq > ring.length) {
+                            idle = idle(idle);
+                        }
+                    }
+                    Message msg = ring[(int) (next & mask)];
+                    msg.topicName = sub.getTopicName();
+                    msg.topicIdx = idx;
+                    msg.multiId = sub.getMultiId();
+                    msg.timestamp = t;
+                    msg.value = sub.getValue();
+                    published.set(next);
+                    seq = next;
+                }
+            }
+        } catch (EOFException ignored) {
+        }
+    }
+
+    private long getMinSequence() {
+        long min = Long.MAX_VALUE;
+        for (Analyzer analyzer : analyzers) {
+            min = Math.min(min, analyzer.sequence.get());
+        }
+        return min;
+    }
+
+    /**
+     * Wait for other side of the buffer: spin first, then yield, then park.
+     *
+     * @return next idle counter
+     */
+    private static int idle(int counter) {
+        if (counter < 100) {
+            Thread.onSpinWait();
+        } else if (counter < 200) {
+            Thread.yield();
+        } else {
+            LockSupport.parkNanos(50_000);
+        }
+        return counter + 1;
+    }
+}
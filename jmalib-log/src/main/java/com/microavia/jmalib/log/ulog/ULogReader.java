@@ -1,71 +1,152 @@
 package com.microavia.jmalib.log.ulog;
 
 import com.microavia.jmalib.log.BinaryLogReader;
+import com.microavia.jmalib.log.ErrorLog;
 import com.microavia.jmalib.log.FormatErrorException;
-import com.microavia.jmalib.log.ulog.model.ArrayType;
-import com.microavia.jmalib.log.ulog.model.StructType;
+import com.microavia.jmalib.log.ReaderOptions;
 import com.microavia.jmalib.log.ulog.model.Type;
 
 import java.io.EOFException;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.nio.ByteBuffer;
-import java.nio.charset.Charset;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 /**
+ * Reader of ULog file. Opening a reader scans the whole log to collect definitions and statistics, results of the
+ * scan are available as {@link ULogFile}, which can be shared between threads to open more readers of the same log
+ * without scanning it again, see {@link ULogFile#openReader()}.
+ * <p>
  * User: ton Date: 03.06.13 Time: 14:18
  */
 public class ULogReader extends BinaryLogReader {
-    private static final byte SYNC_BYTE = (byte) '>';
-    private static final byte MESSAGE_TYPE_STRUCT = (byte) 'F';
-    private static final byte MESSAGE_TYPE_TOPIC = (byte) 'A';
-    private static final byte MESSAGE_TYPE_DATA = (byte) 'D';
-    private static final byte MESSAGE_TYPE_INFO = (byte) 'I';
-    private static final byte MESSAGE_TYPE_PARAMETER = (byte) 'P';
-
-    private String systemName = "";
-    private String systemConfig = "";
-    private long dataStart = 0;
-    private final Map<String, Topic> topicByName = new HashMap<>();
-    private Map<String, String> fieldsList = null;
+    private static final byte SYNC_BYTE = ULogHeader.SYNC_BYTE;
+    private static final byte MESSAGE_TYPE_DATA = ULogHeader.MESSAGE_TYPE_DATA;
+    private static final long MIN_CHUNK_SIZE = 256 << 10;
+    private static final long MAX_CHUNK_SIZE = 64 << 20;
+    /**
+     * Max chunk size when columnar cache is built, decoded columns of a window of chunks are kept in memory.
+     */
+    private static final long MAX_CACHE_CHUNK_SIZE = 8 << 20;
+    /**
+     * Max number of buckets of the finest pyramid level.
+     */
+    private static final int PYRAMID_BUCKETS = 16384;
+    /**
+     * Initial and max size of the tail of the log read to find the last timestamp in lazy scan mode.
+     */
+    private static final int TAIL_WINDOW = 64 << 10;
+    private static final int MAX_TAIL_WINDOW = 64 << 20;
+
     private final Map<Integer, Subscription> subscriptions = new HashMap<>();
     private final ArrayList<Subscription> updatedSubscriptions = new ArrayList<>();
-    private long sizeUpdates = -1;
-    private long sizeMicroseconds = -1;
-    private long startMicroseconds = -1;
     private long timeLast = Long.MIN_VALUE;
-    private long utcTimeReference = -1;
-    private final Map<String, Object> version = new HashMap<>();
-    private final Map<String, Object> parameters = new HashMap<>();
-    private final List<Exception> errors = new ArrayList<>();
-    private int logVersion = 0;
-    private int headerSize = 4;
+    private final ErrorLog errors = new ErrorLog();
+    // Definitions shared with the file, switched to the new header published by the file when data section of
+    // lazily scanned log is scanned
+    private ULogHeader header;
+    private final int headerSize = ULogHeader.MESSAGE_HEADER_SIZE;
     private int msgDataTimestampOffset = 3;
-    private final Codec codec = new Codec();
+    private final Path path;
+    private final ReaderOptions options;
+    private final ULogFile file;
+    // Sync messages found by the scan or by this reader, shared header is not modified
+    private boolean syncMessages = false;
+    // Scan state, shared via file after opening
+    private long dataStart = 0;
+    private long sizeUpdates = -1;
+    private long startMicroseconds = -1;
+    private ULogIndex index = null;
+    private ULogIndex skipIndex = null;
+    private BitSet subscribedBlocks = new BitSet();
+    private long skipCheckPosition = 0;
 
     public ULogReader(String fileName) throws IOException, FormatErrorException {
-        super(fileName);
-        updateStatistics();
+        this(fileName, new ReaderOptions());
+    }
+
+    public ULogReader(String fileName, ReaderOptions options) throws IOException, FormatErrorException {
+        super(fileName, options);
+        try {
+            this.path = Path.of(fileName);
+            this.options = options;
+            header = new ULogHeader(errors);
+            header.codec.setCompiledParsers(options.isCompiledParsers());
+            boolean scanned = updateStatistics();
+            header.internCodec();
+            file = new ULogFile(path, options, header, index, scanned, dataStart, sizeUpdates, startMicroseconds, timeLast, errors);
+            seek(0);
+        } catch (Throwable e) {
+            closeOnFailure(e);
+            throw e;
+        }
+    }
+
+    /**
+     * Open reader of already scanned log, header and index are shared with the file.
+     */
+    ULogReader(ULogFile file, ReaderOptions options) throws IOException {
+        super(file.getPath().toString(), options);
+        try {
+            this.file = file;
+            this.path = file.getPath();
+            this.options = options;
+            header = file.header;
+            msgDataTimestampOffset = header.msgDataTimestampOffset;
+            dataStart = file.dataStart;
+            syncMessages = header.syncMessages;
+            startMicroseconds = file.getStartMicroseconds();
+            errors.addAll(file.errorLog);
+            seek(0);
+        } catch (Throwable e) {
+            closeOnFailure(e);
+            throw e;
+        }
+    }
+
+    /**
+     * Get shared results of the log scan, can be used to open more readers of this log from any thread.
+     */
+    public ULogFile getFile() {
+        return file;
+    }
+
+    /**
+     * Get definitions, switch to the header published by the file, it's replaced when data section of lazily
+     * scanned log is scanned.
+     */
+    private ULogHeader getHeader() {
+        header = file.header;
+        syncMessages |= header.syncMessages;
+        return header;
     }
 
     @Override
     public String getFormat() {
-        return "ULog v" + logVersion;
+        return "ULog v" + getHeader().logVersion;
     }
 
     @Override
     public String getSystemName() {
-        return systemName;
+        return getHeader().systemName;
     }
 
     @Override
     public String getSystemConfig() {
-        return systemConfig;
+        return getHeader().systemConfig;
     }
 
     @Override
     public long getSizeUpdates() {
-        return sizeUpdates;
+        return file.getSizeUpdates();
     }
 
     @Override
@@ -75,65 +156,226 @@ public class ULogReader extends BinaryLogReader {
 
     @Override
     public long getSizeMicroseconds() {
-        return sizeMicroseconds;
+        return file.getSizeMicroseconds();
     }
 
     @Override
     public long getUTCTimeReferenceMicroseconds() {
-        return utcTimeReference;
+        return getHeader().utcTimeReference;
     }
 
     @Override
     public Map<String, Object> getVersion() {
-        return version;
+        return getHeader().version;
     }
 
     @Override
     public Map<String, Object> getParameters() {
-        return parameters;
+        return getHeader().parameters;
     }
 
-    private void updateStatistics() throws IOException, FormatErrorException {
+    /**
+     * Parse header and scan the log or load its index.
+     *
+     * @return false if only definitions were scanned in lazy scan mode
+     */
+    private boolean updateStatistics() throws IOException, FormatErrorException {
         position(0);
-        fillBuffer(4);
-        byte[] logVersionBytes = new byte[4];
-        buffer.get(logVersionBytes);
-        String logVersionStr = new String(logVersionBytes, Charset.forName("latin1"));
-        if (logVersionStr.startsWith("ULG")) {
-            logVersion = Integer.parseInt(logVersionStr.substring(3));
-            headerSize = 4;
-            if (logVersion >= 2) {
-                msgDataTimestampOffset = 3;
-            } else {
-                msgDataTimestampOffset = 2;
+        fillBuffer(ULogHeader.FILE_HEADER_SIZE);
+        header.parseFileHeader(buffer);
+        msgDataTimestampOffset = header.msgDataTimestampOffset;
+        if (options.isIndexFileEnabled()) {
+            index = ULogIndex.load(path);
+            if (index != null) {
+                loadIndex();
+                return true;
+            }
+        }
+        index = new ULogIndex();
+        startMicroseconds = -1;
+        sizeUpdates = 0;
+        timeLast = Long.MIN_VALUE;
+        if (options.isLazyScan() && scanDefinitions()) {
+            timeLast = findLastTimestamp();
+            if (timeLast != Long.MIN_VALUE) {
+                return false;
             }
-        } else {
-            throw new FormatErrorException("Unsupported file format");
+            // Tail is not recognized, continue with full scan
         }
+        scanData();
+        return true;
+    }
+
+    /**
+     * Scan messages up to the first data message.
+     *
+     * @return false if log has no data messages
+     */
+    private boolean scanDefinitions() throws IOException {
+        try {
+            while (dataStart == 0) {
+                readMessage(this::handleDefinitionScanMessage);
+            }
+            return true;
+        } catch (EOFException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Scan data section of lazily scanned log and pass results to the file.
+     *
+     * @param definitions index of definitions before the data section
+     */
+    void completeScan(ULogIndex definitions) throws IOException {
+        // Definitions in the data section are parsed to a copy of the header, shared header may be used by other
+        // threads, errors are reported to this reader, not to the one which opened the log
+        ULogHeader shared = header;
+        header = shared.copy(errors);
+        index = definitions.copyDefinitions();
         startMicroseconds = -1;
         sizeUpdates = 0;
-        fieldsList = new HashMap<>();
         timeLast = Long.MIN_VALUE;
+        position(dataStart);
+        scanData();
+        header.internCodec();
+        header.errors = shared.errors;
+        file.completeScan(header, index, sizeUpdates, timeLast, errors);
+    }
+
+    /**
+     * Find timestamp of the last data message reading the tail of the log. Messages are found by checking chains
+     * of messages from every possible sync byte to the end of the file, tail is enlarged if it doesn't contain
+     * data messages.
+     *
+     * @return timestamp or Long.MIN_VALUE if not found
+     */
+    private long findLastTimestamp() throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long fileSize = channel.size();
+            for (long window = TAIL_WINDOW; window <= MAX_TAIL_WINDOW; window *= 2) {
+                long start = Math.max(dataStart, fileSize - window);
+                ByteBuffer tail = ByteBuffer.allocate((int) (fileSize - start)).order(ByteOrder.LITTLE_ENDIAN);
+                while (tail.hasRemaining()) {
+                    if (channel.read(tail, start + tail.position()) < 0) {
+                        break;
+                    }
+                }
+                int limit = tail.position();
+                for (int p = 0; p + headerSize <= limit; p++) {
+                    if (tail.get(p) == SYNC_BYTE) {
+                        long timestamp = getChainLastTimestamp(tail, p, limit);
+                        if (timestamp != Long.MAX_VALUE) {
+                            // Valid chain found, if it has no data messages then enlarge the tail
+                            if (timestamp != Long.MIN_VALUE) {
+                                return timestamp;
+                            }
+                            break;
+                        }
+                    }
+                }
+                if (start == dataStart) {
+                    break;
+                }
+            }
+        }
+        return Long.MIN_VALUE;
+    }
+
+    /**
+     * Follow chain of messages from the position to the end of the buffer, last message may be truncated.
+     *
+     * @return timestamp of the last data message in the chain, Long.MIN_VALUE if chain has no data messages or
+     * Long.MAX_VALUE if it's not a valid chain
+     */
+    private long getChainLastTimestamp(ByteBuffer tail, int p, int limit) {
+        long timestamp = Long.MIN_VALUE;
+        while (p + headerSize <= limit) {
+            int msgType = tail.get(p + 1) & 0xFF;
+            if (tail.get(p) != SYNC_BYTE || msgType < 'A' || msgType > 'Z') {
+                return Long.MAX_VALUE;
+            }
+            int msgSize = tail.getShort(p + 2) & 0xFFFF;
+            int bp = p + headerSize;
+            if (bp + msgSize > limit) {
+                // Truncated last message
+                return timestamp;
+            }
+            if (msgType == MESSAGE_TYPE_DATA && msgSize >= msgDataTimestampOffset + 8) {
+                timestamp = tail.getLong(bp + msgDataTimestampOffset);
+            }
+            p = bp + msgSize;
+        }
+        return p == limit ? timestamp : Long.MAX_VALUE;
+    }
+
+    /**
+     * Scan messages from current position to the end of the log, add them to the index.
+     */
+    private void scanData() throws IOException {
         try {
             while (true) {
-                readMessage(this::handleHeaderMessage);
+                readMessage(this::handleScanMessage);
             }
         } catch (EOFException ignored) {
         }
-        sizeMicroseconds = timeLast - startMicroseconds;
-        seek(0);
+        index.dataStart = dataStart;
+        index.sizeUpdates = sizeUpdates;
+        index.startMicroseconds = startMicroseconds;
+        index.lastMicroseconds = timeLast;
+        if (options.isIndexFileEnabled()) {
+            index.errors.addAll(errors);
+            try {
+                index.save(path);
+            } catch (IOException ignored) {
+                // Index is optional, e.g. log may be located in read-only directory
+            }
+        }
+    }
+
+    /**
+     * Restore header from the index, only non-data messages are parsed.
+     */
+    private void loadIndex() throws IOException {
+        for (long pos : index.getDefinitionOffsets()) {
+            position(pos);
+            readMessage(this::handleHeaderMessage);
+        }
+        header.syncMessages = index.syncMessages;
+        syncMessages = index.syncMessages;
+        // Errors were stored in index, avoid duplicates
+        errors.clear();
+        errors.addAll(index.errors);
+        dataStart = index.dataStart;
+        sizeUpdates = index.sizeUpdates;
+        startMicroseconds = index.startMicroseconds;
+        timeLast = index.lastMicroseconds;
     }
 
     public Subscription addSubscription(String topicName) {
-        Topic topic = topicByName.get(topicName);
+        return addSubscription(topicName, DecodeMode.EAGER);
+    }
+
+    /**
+     * Add subscription to topic. If subscription to the topic already exists, return existing one, regardless of
+     * its decode mode.
+     *
+     * @param topicName topic name (without multiId)
+     * @param mode      decode mode of the subscription
+     * @return subscription object
+     */
+    public Subscription addSubscription(String topicName, DecodeMode mode) {
+        Codec codec = getHeader().codec;
+        Topic topic = header.topicByName.get(topicName);
         if (topic == null) {
             throw new SubscriptionException("Topic not found: " + topicName);
         }
         Type topicType = codec.getTypeDescription(topic.getTypeName());
         var sub = subscriptions.get(topic.getId());
         if (sub == null) {
-            sub = new Subscription(codec, topicName, topicType);
+            sub = new Subscription(codec, topicName, topicType, mode);
             subscriptions.put(topic.getId(), sub);
+            updateSubscribedBlocks();
         }
         return sub;
     }
@@ -142,6 +384,38 @@ public class ULogReader extends BinaryLogReader {
     public void removeAllSubscriptions() {
         subscriptions.clear();
         updatedSubscriptions.clear();
+        updateSubscribedBlocks();
+    }
+
+    private void updateSubscribedBlocks() {
+        // Don't force scan of lazily scanned log, blocks are skipped only if index is already available
+        skipIndex = file.getScannedIndex();
+        subscribedBlocks = skipIndex != null ? skipIndex.getTopicsBlocks(subscriptions.keySet()) : null;
+        skipCheckPosition = skipIndex != null ? 0 : Long.MAX_VALUE;
+    }
+
+    /**
+     * Jump to the next block of the log containing messages of subscribed topics, if current block doesn't contain
+     * them. With sparse subscriptions, e.g. low rate topic in a log dominated by high rate topics, most of the log
+     * is not read at all.
+     *
+     * @throws EOFException if there are no more messages of subscribed topics
+     */
+    private void skipBlocks() throws IOException {
+        int block = skipIndex.findBlock(position());
+        if (block < 0) {
+            // Before the first block, no skipping
+            skipCheckPosition = skipIndex.getBlocksNum() > 0 ? skipIndex.getBlockStart(0) : Long.MAX_VALUE;
+            return;
+        }
+        int next = subscribedBlocks.nextSetBit(block);
+        if (next < 0) {
+            throw new EOFException();
+        }
+        if (next > block) {
+            position(skipIndex.getBlockStart(next));
+        }
+        skipCheckPosition = skipIndex.getBlockEnd(next);
     }
 
     @Override
@@ -152,6 +426,9 @@ public class ULogReader extends BinaryLogReader {
         updatedSubscriptions.clear();
         timeLast = Long.MIN_VALUE;
         do {
+            if (position() >= skipCheckPosition) {
+                skipBlocks();
+            }
             readMessage(this::handleDataMessage);
         } while (timeLast == Long.MIN_VALUE);
         return timeLast;
@@ -164,13 +441,16 @@ public class ULogReader extends BinaryLogReader {
 
     @Override
     public boolean seek(long seekTime) throws IOException {
-        position(dataStart);
         timeLast = Long.MIN_VALUE;
+        skipCheckPosition = skipIndex != null ? 0 : Long.MAX_VALUE;
         if (seekTime == 0) {      // Seek to start of log
+            position(dataStart);
             return true;
         }
         // Seek to specified timestamp without parsing all messages
         try {
+            // Skip messages with earlier timestamps using time index and scan from nearest known position
+            position(file.getIndex().findSeekPosition(seekTime));
             while (timeLast < seekTime) {
                 readMessage((pos, msgType, msgSize) -> {
                     if (msgType == MESSAGE_TYPE_DATA) {
@@ -190,9 +470,366 @@ public class ULogReader extends BinaryLogReader {
         }
     }
 
+    /**
+     * Read whole time series of scalar fields in one pass. Values are read directly from raw messages to primitive
+     * columns without decoding and boxing. Subscriptions are not affected, reader position is reset to the start of
+     * the log.
+     *
+     * @param fieldPaths full paths of scalar fields as returned by {@link #getFields()}, e.g. "ATTITUDE_POSITION.alt_el"
+     * @return column sets by topic name and multi instance id
+     * @throws SubscriptionException if topic or field not found or field is not scalar
+     */
+    public Map<String, Map<Integer, ColumnSet>> readColumns(Collection<String> fieldPaths) throws IOException {
+        ColumnCache cache = getColumnCache(fieldPaths);
+        if (cache != null) {
+            return cache.getColumns(fieldPaths);
+        }
+        var extractor = new ColumnExtractor(getHeader().codec, header.topicByName, fieldPaths);
+        position(dataStart);
+        try {
+            while (true) {
+                readMessage((pos, msgType, msgSize) -> {
+                    int bp = buffer.position();
+                    if (msgType == MESSAGE_TYPE_DATA) {
+                        int msgId = header.getDataMsgId(buffer, bp);
+                        int multiId = buffer.get(bp + msgDataTimestampOffset - 1) & 0xFF;
+                        long timestamp = buffer.getLong(bp + msgDataTimestampOffset);
+                        extractor.handleData(buffer, bp + msgDataTimestampOffset + 8, bp + msgSize, msgId, multiId, timestamp);
+                    }
+                    buffer.position(bp + msgSize);
+                });
+            }
+        } catch (EOFException ignored) {
+        }
+        seek(0);
+        return extractor.getColumns();
+    }
+
+    /**
+     * Read whole time series of scalar fields, decoding chunks of the log concurrently. Data section is split to
+     * chunks at data message positions from the time index, every chunk is read and decoded to separate columns
+     * by a task in the pool, then columns are concatenated in file order, so result is the same as returned by
+     * {@link #readColumns(Collection)}. Log file is read via separate channel, reader position and subscriptions
+     * are not affected.
+     *
+     * @param fieldPaths full paths of scalar fields as returned by {@link #getFields()}
+     * @param pool       pool to run decoding tasks
+     * @return column sets by topic name and multi instance id
+     * @throws SubscriptionException if topic or field not found or field is not scalar
+     */
+    public Map<String, Map<Integer, ColumnSet>> readColumns(Collection<String> fieldPaths, ForkJoinPool pool) throws IOException {
+        ColumnCache cache = getColumnCache(fieldPaths);
+        if (cache != null) {
+            return cache.getColumns(fieldPaths);
+        }
+        return decodeColumns(fieldPaths, pool);
+    }
+
+    private Map<String, Map<Integer, ColumnSet>> decodeColumns(Collection<String> fieldPaths, ForkJoinPool pool) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long[] bounds = getChunkBounds(channel.size(), pool.getParallelism(), MAX_CHUNK_SIZE);
+            // Data section is scanned for chunk bounds, definitions from it are available now
+            var topicByName = getHeader().topicByName;
+            var codec = header.codec;
+            List<ColumnExtractor> extractors = new ArrayList<>();
+            List<ErrorLog> chunkErrors = new ArrayList<>();
+            List<Callable<Void>> tasks = new ArrayList<>();
+            for (int i = 0; i < bounds.length - 1; i++) {
+                // Create extractors in this thread, so invalid paths are reported before tasks are started
+                var extractor = new ColumnExtractor(codec, topicByName, fieldPaths);
+                var extractorErrors = new ErrorLog();
+                long start = bounds[i];
+                long end = bounds[i + 1];
+                extractors.add(extractor);
+                chunkErrors.add(extractorErrors);
+                tasks.add(() -> {
+                    scanChunk(channel, start, end, syncMessages, extractor::handleData, extractorErrors);
+                    return null;
+                });
+            }
+            invokeAll(pool, tasks);
+            // Errors of chunks in file order, as if the log was read sequentially
+            chunkErrors.forEach(errors::addAll);
+            return ColumnExtractor.merge(extractors);
+        }
+    }
+
+    /**
+     * Get columnar cache of the log if enabled in options and contains all the fields. Cache is loaded or built
+     * once per file, by the first requesting thread, other threads wait for it without holding the file lock.
+     *
+     * @return cache or null if not enabled, doesn't contain some of the fields or can't be stored
+     */
+    private ColumnCache getColumnCache(Collection<String> fieldPaths) throws IOException {
+        if (!options.isColumnCacheEnabled()) {
+            return null;
+        }
+        ColumnCache cache = file.getColumnCache(() -> {
+            ColumnCache loaded = ColumnCache.load(path);
+            if (loaded == null) {
+                try {
+                    buildColumnCache(ForkJoinPool.commonPool());
+                    loaded = ColumnCache.load(path);
+                } catch (IOException ignored) {
+                    // Cache is optional, e.g. log may be located in read-only directory
+                }
+            }
+            return loaded;
+        });
+        return cache != null && cache.contains(fieldPaths) ? cache : null;
+    }
+
+    /**
+     * Build columnar cache of all scalar fields. Messages are counted in the first pass to reserve regions of the
+     * cache file, then columns are decoded and written chunk by chunk, so memory used doesn't depend on log size.
+     */
+    private void buildColumnCache(ForkJoinPool pool) throws IOException {
+        Map<String, String> fields = getFields();
+        List<String> scalarFields = fields.entrySet().stream()
+                .filter(e -> Scalar.of(e.getValue()) != null).map(Map.Entry::getKey).sorted().toList();
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long[] bounds = getChunkBounds(channel.size(), pool.getParallelism(), MAX_CACHE_CHUNK_SIZE);
+            var topicByName = getHeader().topicByName;
+            var codec = header.codec;
+            // Count messages by topic id and instance
+            int topicsNum = topicByName.values().stream().mapToInt(Topic::getId).max().orElse(-1) + 1;
+            List<int[][]> chunkCounts = new ArrayList<>();
+            List<Callable<Void>> tasks = new ArrayList<>();
+            for (int i = 0; i < bounds.length - 1; i++) {
+                int[][] counts = new int[topicsNum][];
+                long start = bounds[i];
+                long end = bounds[i + 1];
+                chunkCounts.add(counts);
+                tasks.add(() -> {
+                    // Errors are reported by the decoding pass
+                    scanChunk(channel, start, end, syncMessages, (buffer, base, msgEnd, msgId, multiId, timestamp) -> {
+                        if (msgId < counts.length) {
+                            if (counts[msgId] == null) {
+                                counts[msgId] = new int[128];
+                            }
+                            counts[msgId][multiId & 0x7F]++;
+                        }
+                    }, new ErrorLog(1));
+                    return null;
+                });
+            }
+            invokeAll(pool, tasks);
+            Map<String, Map<Integer, Integer>> counts = new HashMap<>();
+            for (Topic topic : topicByName.values()) {
+                int id = topic.getId();
+                for (int[][] c : chunkCounts) {
+                    if (id >= c.length || c[id] == null) {
+                        continue;
+                    }
+                    for (int instance = 0; instance < c[id].length; instance++) {
+                        if (c[id][instance] > 0) {
+                            counts.computeIfAbsent(topic.getName(), t -> new HashMap<>()).merge(instance, c[id][instance], Integer::sum);
+                        }
+                    }
+                }
+            }
+            // Decode chunks in windows of pool size and write them in file order
+            try (ColumnCache.Writer writer = new ColumnCache.Writer(path, scalarFields, fields, counts)) {
+                int window = pool.getParallelism();
+                for (int w = 0; w < bounds.length - 1; w += window) {
+                    List<ColumnExtractor> extractors = new ArrayList<>();
+                    List<ErrorLog> chunkErrors = new ArrayList<>();
+                    tasks.clear();
+                    for (int i = w; i < Math.min(w + window, bounds.length - 1); i++) {
+                        var extractor = new ColumnExtractor(codec, topicByName, scalarFields);
+                        var extractorErrors = new ErrorLog();
+                        long start = bounds[i];
+                        long end = bounds[i + 1];
+                        extractors.add(extractor);
+                        chunkErrors.add(extractorErrors);
+                        tasks.add(() -> {
+                            scanChunk(channel, start, end, syncMessages, extractor::handleData, extractorErrors);
+                            return null;
+                        });
+                    }
+                    invokeAll(pool, tasks);
+                    chunkErrors.forEach(errors::addAll);
+                    for (ColumnExtractor extractor : extractors) {
+                        writer.write(extractor.getColumns());
+                    }
+                }
+                writer.commit();
+            }
+        }
+    }
+
+    private static void invokeAll(ForkJoinPool pool, List<Callable<Void>> tasks) throws IOException {
+        try {
+            for (Future<Void> future : pool.invokeAll(tasks)) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof IOException ioe) {
+                        throw ioe;
+                    }
+                    throw new RuntimeException(e.getCause());
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+    }
+
+    /**
+     * Get min/max pyramid of a numeric field for plotting of large time ranges, see {@link Pyramid}. Pyramids are
+     * cached in the shared {@link ULogFile}.
+     *
+     * @param fieldPath full path of scalar field as returned by {@link #getFields()}
+     * @return pyramids by multi instance id
+     * @throws SubscriptionException if topic or field not found or field is not scalar
+     */
+    public Map<Integer, Pyramid> getPyramid(String fieldPath) throws IOException {
+        return getPyramids(List.of(fieldPath)).get(fieldPath);
+    }
+
+    /**
+     * Get min/max pyramids of numeric fields. Pyramids are built on first request from columns read in parallel
+     * using common pool, then cached, so fields should be requested together when possible. Buckets of all pyramids
+     * are aligned to the log start. Reader position and subscriptions are not affected.
+     *
+     * @param fieldPaths full paths of scalar fields as returned by {@link #getFields()}
+     * @return pyramids by field path and multi instance id
+     * @throws SubscriptionException if topic or field not found or field is not scalar
+     */
+    public Map<String, Map<Integer, Pyramid>> getPyramids(Collection<String> fieldPaths) throws IOException {
+        var pyramids = file.pyramids;
+        Map<String, Map<Integer, Pyramid>> res = new LinkedHashMap<>();
+        synchronized (pyramids) {
+            List<String> missing = fieldPaths.stream().filter(p -> !pyramids.containsKey(p)).distinct().toList();
+            if (!missing.isEmpty()) {
+                long bucketMicroseconds = Math.max(1, (getSizeMicroseconds() + PYRAMID_BUCKETS - 1) / PYRAMID_BUCKETS);
+                var columns = readColumns(missing, ForkJoinPool.commonPool());
+                for (String fieldPath : missing) {
+                    pyramids.put(fieldPath, new TreeMap<>());
+                }
+                for (var sets : columns.values()) {
+                    for (ColumnSet set : sets.values()) {
+                        for (Column column : set.getColumns()) {
+                            var built = Pyramid.build(set, column, startMicroseconds, bucketMicroseconds);
+                            pyramids.get(column.getPath()).put(set.getMultiId(), built);
+                        }
+                    }
+                }
+            }
+            for (String fieldPath : fieldPaths) {
+                res.put(fieldPath, Collections.unmodifiableMap(pyramids.get(fieldPath)));
+            }
+        }
+        return res;
+    }
+
+    /**
+     * Split data section to chunks at data message positions from the time index.
+     *
+     * @return chunk boundaries, starting with data start and ending with file size
+     */
+    private long[] getChunkBounds(long fileSize, int parallelism, long maxChunkSize) throws IOException {
+        // Several chunks per thread to balance load, but not too small or large chunks
+        long chunkSize = Math.max(MIN_CHUNK_SIZE, Math.min(maxChunkSize, (fileSize - dataStart) / (parallelism * 4L)));
+        List<Long> bounds = new ArrayList<>();
+        bounds.add(dataStart);
+        for (long offset : file.getIndex().getTimeIndexOffsets()) {
+            if (offset - bounds.get(bounds.size() - 1) >= chunkSize) {
+                bounds.add(offset);
+            }
+        }
+        bounds.add(fileSize);
+        return bounds.stream().mapToLong(Long::longValue).toArray();
+    }
+
+    interface DataHandler {
+        void handleData(ByteBuffer buffer, int base, int end, int msgId, int multiId, long timestamp);
+    }
+
+    /**
+     * Read chunk of the log and pass all data messages in it to the handler. Chunk starts at message boundary.
+     * Format errors are recorded to the error log of the chunk as by sequential reading.
+     */
+    private void scanChunk(FileChannel channel, long start, long end, boolean syncMessages, DataHandler handler,
+                           ErrorLog chunkErrors) throws IOException {
+        ByteBuffer chunk = ByteBuffer.allocate((int) (end - start)).order(ByteOrder.LITTLE_ENDIAN);
+        while (chunk.hasRemaining()) {
+            if (channel.read(chunk, start + chunk.position()) < 0) {
+                break;
+            }
+        }
+        int limit = chunk.position();
+        int p = 0;
+        while (p + headerSize <= limit) {
+            if (chunk.get(p) != SYNC_BYTE || !ULogHeader.isMessageType(chunk.get(p + 1))) {
+                int next = syncMessages ? ULogHeader.findSyncMessage(chunk, p + 1, limit) : ULogHeader.findMessageStart(chunk, p + 1, limit);
+                int skipped = (next >= 0 ? next : limit) - p;
+                chunkErrors.add(ErrorLog.Kind.SYNC, start + p, "Invalid message header, skipped " + skipped + " bytes");
+                if (next < 0) {
+                    return;
+                }
+                p = next;
+                continue;
+            }
+            int msgType = chunk.get(p + 1) & 0xFF;
+            int msgSize = chunk.getShort(p + 2) & 0xFFFF;
+            int bp = p + headerSize;
+            if (header.appendedOffsets.length > 0) {
+                long appended = header.getAppendedOffset(start + p, start + bp + msgSize);
+                if (appended >= 0) {
+                    chunkErrors.add(ErrorLog.Kind.TRUNCATED, start + p, "Message truncated by appended data");
+                    p = (int) Math.min(appended - start, limit);
+                    continue;
+                }
+            }
+            if (bp + msgSize > limit) {
+                if (start + limit >= channel.size()) {
+                    chunkErrors.add(ErrorLog.Kind.TRUNCATED, start + p, "Unexpected end of file");
+                } else {
+                    // Invalid size, next chunk starts at a known message
+                    chunkErrors.add(ErrorLog.Kind.SYNC, start + p, "Invalid message header, skipped " + (limit - p) + " bytes");
+                }
+                return;
+            }
+            if (msgType == MESSAGE_TYPE_DATA) {
+                try {
+                    int msgId = header.getDataMsgId(chunk, bp);
+                    int multiId = chunk.get(bp + msgDataTimestampOffset - 1) & 0xFF;
+                    long timestamp = chunk.getLong(bp + msgDataTimestampOffset);
+                    handler.handleData(chunk, bp + msgDataTimestampOffset + 8, bp + msgSize, msgId, multiId, timestamp);
+                } catch (Exception e) {
+                    chunkErrors.add(ErrorLog.Kind.PARSE, start + p, "Error parsing message typeName: " + msgType, e);
+                }
+            }
+            p = bp + msgSize;
+        }
+        if (p < limit) {
+            if (start + limit >= channel.size()) {
+                chunkErrors.add(ErrorLog.Kind.TRUNCATED, start + p, "Unexpected end of file");
+            } else {
+                chunkErrors.add(ErrorLog.Kind.SYNC, start + p, "Invalid message header, skipped " + (limit - p) + " bytes");
+            }
+        }
+    }
+
+    /**
+     * Get gaps in the log reported by the logger, scan data messages if not scanned yet.
+     */
+    public List<Dropout> getDropouts() {
+        return file.getDropouts();
+    }
+
+    /**
+     * Get text messages logged by the system, scan data messages if not scanned yet.
+     */
+    public List<LogMessage> getLogMessages() {
+        return file.getLogMessages();
+    }
+
     @Override
     public Map<String, String> getFields() {
-        return fieldsList;
+        return getHeader().fieldsList;
     }
 
     /**
@@ -205,28 +842,108 @@ public class ULogReader extends BinaryLogReader {
         while (true) {
             fillBuffer(headerSize);
             long pos = position();
-            byte sync = buffer.get();
-            if (sync != SYNC_BYTE) {
-                errors.add(new FormatErrorException(pos, String.format("Wrong sync byte: 0x%02X (expected 0x%02X)", sync & 0xFF, SYNC_BYTE & 0xFF)));
+            int bp = buffer.position();
+            if (buffer.get(bp) != SYNC_BYTE || !ULogHeader.isMessageType(buffer.get(bp + 1))) {
+                resync();
                 continue;
             }
+            buffer.get();
             int msgType = buffer.get() & 0xFF;
             int msgSize = buffer.getShort() & 0xFFFF;
+            if (header.appendedOffsets.length > 0) {
+                long appended = header.getAppendedOffset(pos, pos + headerSize + msgSize);
+                if (appended >= 0) {
+                    errors.add(ErrorLog.Kind.TRUNCATED, pos, "Message truncated by appended data");
+                    position(appended);
+                    continue;
+                }
+            }
             try {
                 fillBuffer(msgSize);
             } catch (EOFException e) {
-                errors.add(new FormatErrorException(pos, "Unexpected end of file"));
+                errors.add(ErrorLog.Kind.TRUNCATED, pos, "Unexpected end of file");
                 throw e;
             }
             try {
                 handler.handleMessage(pos, msgType, msgSize);
             } catch (Exception e) {
-                errors.add(new FormatErrorException(pos, "Error parsing message typeName: " + msgType, e));
+                errors.add(ErrorLog.Kind.PARSE, pos, "Error parsing message typeName: " + msgType, e);
             }
             return;
         }
     }
 
+    /**
+     * Skip corrupted data up to the next byte sequence looking like message start, or up to the next sync message
+     * if the log contains sync messages. Buffer must be positioned at invalid message header. Buffer is searched
+     * word at a time, whole skipped run is reported as single error.
+     *
+     * @throws EOFException if no message start found until end of the log
+     */
+    private void resync() throws IOException {
+        long start = position();
+        try {
+            boolean syncOnly = syncMessages;
+            buffer.position(buffer.position() + 1);
+            while (true) {
+                int limit = buffer.limit();
+                int p = syncOnly ? ULogHeader.findSyncMessage(buffer, buffer.position(), limit) : ULogHeader.findMessageStart(buffer, buffer.position(), limit);
+                if (p >= 0) {
+                    buffer.position(p);
+                    if (!syncOnly || p + ULogHeader.SYNC_MESSAGE_SIZE <= limit) {
+                        return;
+                    }
+                    // Not enough data to check sync message
+                    fillBuffer(ULogHeader.SYNC_MESSAGE_SIZE);
+                    continue;
+                }
+                // Keep the last byte, it may be sync byte of the message continued in next part of the log
+                buffer.position(Math.max(buffer.position(), buffer.limit() - 1));
+                fillBuffer(buffer.remaining() + 1);
+            }
+        } finally {
+            errors.add(ErrorLog.Kind.SYNC, start, "Invalid message header, skipped " + (position() - start) + " bytes");
+        }
+    }
+
+    private void handleDefinitionScanMessage(long pos, int msgType, int msgSize) throws IOException {
+        if (msgType == MESSAGE_TYPE_DATA) {
+            dataStart = pos;
+            startMicroseconds = buffer.getLong(buffer.position() + msgDataTimestampOffset);
+            // Leave data message for data scan
+            position(pos);
+            return;
+        }
+        handleScanMessage(pos, msgType, msgSize);
+    }
+
+    private void handleScanMessage(long pos, int msgType, int msgSize) throws IOException {
+        int bp = buffer.position();
+        switch (msgType) {
+            case MESSAGE_TYPE_DATA -> index.addData(pos, buffer.getLong(bp + msgDataTimestampOffset), header.getDataMsgId(buffer, bp));
+            case ULogHeader.MESSAGE_TYPE_SYNC -> {
+                index.syncMessages = true;
+                header.syncMessages = true;
+                syncMessages = true;
+            }
+            // Gap starts after the last data message
+            case ULogHeader.MESSAGE_TYPE_DROPOUT -> index.dropouts.add(
+                    new Dropout(timeLast != Long.MIN_VALUE ? timeLast : -1, (buffer.getShort(bp) & 0xFFFF) * 1000L));
+            case ULogHeader.MESSAGE_TYPE_LOGGING -> index.logMessages.add(parseLogMessage(bp, msgSize));
+            default -> index.addDefinition(pos);
+        }
+        handleHeaderMessage(pos, msgType, msgSize);
+    }
+
+    private LogMessage parseLogMessage(int bp, int msgSize) {
+        // Level is ASCII digit
+        int level = (buffer.get(bp) & 0xFF) - '0';
+        long timestamp = buffer.getLong(bp + 1);
+        byte[] text = new byte[msgSize - 9];
+        buffer.get(bp + 9, text);
+        return new LogMessage(timestamp, level, new String(text, header.codec.getCharset()));
+    }
+
     private void handleHeaderMessage(long pos, int msgType, int msgSize) throws IOException {
         switch (msgType) {
             case MESSAGE_TYPE_DATA: {
@@ -242,156 +959,44 @@ public class ULogReader extends BinaryLogReader {
                 buffer.position(buffer.position() + msgSize);
                 break;
             }
-            case MESSAGE_TYPE_STRUCT: {
-                if (logVersion <= 1) {
-                    int msgId = buffer.get() & 0xFF;
-                    int formatLen = buffer.getShort() & 0xFFFF;
-                    String descrStr = getString(buffer, formatLen);
-                    String[] descr = getString(buffer, formatLen).split(":");
-                    if (descr.length <= 1) {
-                        errors.add(new FormatErrorException(pos, String.format("Invalid struct description: %s", descrStr)));
-                        break;
-                    }
-                    codec.addStructType(descr[0], descr[1]);
-                } else {
-                    String descrStr = getString(buffer, msgSize);
-                    String[] descr = descrStr.split(":");
-                    if (descr.length <= 1) {
-                        errors.add(new FormatErrorException(pos, String.format("Invalid struct description: %s", descrStr)));
-                        break;
-                    }
-
-                    codec.addStructType(descr[0], descr[1]);
-                }
-                break;
-            }
-            case MESSAGE_TYPE_TOPIC: {
-                int msgId = buffer.getShort() & 0xFFFF;
-                String[] descr = getString(buffer, msgSize - 2).split(":");
-                String name = descr[0];
-                String typeName = descr[1];
-                Type typeDescr = codec.getTypeDescription(typeName);
-                if (typeDescr == null) {
-                    errors.add(new FormatErrorException(pos, String.format("Unknown topic struct typeName: %s", typeName)));
-                    break;
-                }
-                Topic topic = new Topic(name, typeDescr.getTypeName(), msgId);
-                topicByName.put(name, topic);
-                addFieldsToList(pos, name, typeDescr);
-                break;
-            }
-            case MESSAGE_TYPE_INFO: {
-                int keyLen = buffer.get() & 0xFF;
-                String[] keyDescr = getString(buffer, keyLen).split(" ");
-                String key = keyDescr[1];
-                Parser parser = codec.getValueParser(keyDescr[0]);
-                if (parser == null) {
-                    errors.add(new FormatErrorException(pos, "Error parsing info: " + key));
-                    break;
-                }
-                Object value = parser.parse(buffer);
-                switch (key) {
-                    case "sys_name":
-                        systemName = codec.objectToString(value);
-                        break;
-                    case "sys_config":
-                        systemConfig = codec.objectToString(value);
-                        break;
-                    case "ver_hw":
-                        version.put("HW", codec.objectToString(value));
-                        break;
-                    case "ver_sw":
-                        version.put("FW", codec.objectToString(value));
-                        break;
-                    case "time_ref_utc":
-                        utcTimeReference = ((Number) value).longValue();
-                        break;
-                }
-                break;
-            }
-            case MESSAGE_TYPE_PARAMETER: {
-                int keyLen = buffer.get() & 0xFF;
-                String[] keyDescr = getString(buffer, keyLen).split(" ");
-                String key = keyDescr[1];
-                Parser parser = codec.getValueParser(keyDescr[0]);
-                if (parser == null) {
-                    errors.add(new FormatErrorException(pos, "Error parsing parameter: " + key));
-                    break;
-                }
-                Object value = parser.parse(buffer);
-                parameters.put(key, value);
-                break;
-            }
             default:
-                buffer.position(buffer.position() + msgSize);
-                errors.add(new FormatErrorException(pos, "Unknown message typeName: " + msgType));
-                break;
-        }
-        int sizeParsed = (int) (position() - pos - headerSize);
-        if (sizeParsed != msgSize) {
-            errors.add(new FormatErrorException(pos, "Message size mismatch, parsed: " + sizeParsed + ", msg size: " + msgSize + ", msgType: " + msgType));
-            buffer.position(buffer.position() + msgSize - sizeParsed);
-        }
-    }
-
-    private void addFieldsToList(long pos, String path, Type typeDescr) {
-        switch (typeDescr.getTypeClass()) {
-            case STRUCT: {
-                for (var field : ((StructType) typeDescr).getFields()) {
-                    if (!field.name().startsWith("_")) {
-                        var type = codec.getTypeDescription(field.typeName());
-                        if (type == null) {
-                            errors.add(new FormatErrorException(pos, "Invalid type of field " + field.typeName() + ": " + field.name()));
-                            break;
-                        }
-                        addFieldsToList(pos, String.format("%s.%s", path, field.name()), type);
-                    }
-                }
-                break;
-            }
-            case ARRAY: {
-                var arrDescr = ((ArrayType) typeDescr);
-                int size = arrDescr.getSize();
-                for (int i = 0; i < size; i++) {
-                    addFieldsToList(pos, String.format("%s[%s]", path, i), codec.getTypeDescription(arrDescr.getElementType()));
-                }
+                header.handleDefinition(buffer, pos, msgType, msgSize);
                 break;
-            }
-            default: {
-                fieldsList.put(path, typeDescr.getTypeName());
-                break;
-            }
         }
     }
 
     private void handleDataMessage(long pos, int msgType, int msgSize) {
         int bp = buffer.position();
         if (msgType == MESSAGE_TYPE_DATA) {
-            int msgId = logVersion >= 2 ? (buffer.getShort() & 0xFFFF) : (buffer.get() & 0xFF);
+            int msgId = header.getDataMsgId(buffer, bp);
             Subscription sub = subscriptions.get(msgId);
             if (sub != null) {
-                int multiId = buffer.get() & 0xFF;
-                long timestamp = buffer.getLong();
-                if (sub.update(buffer, multiId)) {
+                int multiId = buffer.get(bp + msgDataTimestampOffset - 1) & 0xFF;
+                long timestamp = buffer.getLong(bp + msgDataTimestampOffset);
+                int base = bp + msgDataTimestampOffset + 8;
+                buffer.position(base);
+                if (sub.accept(buffer, base, bp + msgSize, timestamp) && sub.update(buffer, multiId)) {
                     updatedSubscriptions.add(sub);
                     timeLast = timestamp;
                 }
             }
-        } else {
-            errors.add(new FormatErrorException("Unexpected message typeName: " + msgType));
+        } else if (msgType == ULogHeader.MESSAGE_TYPE_SYNC) {
+            syncMessages = true;
+        } else if (msgType != ULogHeader.MESSAGE_TYPE_DROPOUT && msgType != ULogHeader.MESSAGE_TYPE_LOGGING) {
+            errors.add(ErrorLog.Kind.UNEXPECTED_MESSAGE, pos, "Unexpected message typeName: " + msgType);
         }
         buffer.position(bp + msgSize);
     }
 
-    private String getString(ByteBuffer buffer, int len) {
-        byte[] strBuf = new byte[len];
-        buffer.get(strBuf);
-        String[] p = new String(strBuf, codec.getCharset()).split("\0");
-        return p.length > 0 ? p[0] : "";
-    }
-
     @Override
     public List<Exception> getErrors() {
+        return errors.getErrors();
+    }
+
+    /**
+     * Get errors with number of errors of every kind, including errors dropped from the bounded list.
+     */
+    public ErrorLog getErrorLog() {
         return errors;
     }
 
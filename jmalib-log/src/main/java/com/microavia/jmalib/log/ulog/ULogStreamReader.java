@@ -0,0 +1,286 @@
+package com.microavia.jmalib.log.ulog;
+
+import com.microavia.jmalib.log.ErrorLog;
+import com.microavia.jmalib.log.FormatErrorException;
+import com.microavia.jmalib.log.ulog.model.Type;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Streaming ULog reader for logs that are still being written, e.g. file written by logger or telemetry link.
+ * Definitions are parsed as they arrive, topics become available for subscription after their definitions are
+ * received. Incomplete message at the end of received data is kept until the rest of it arrives.
+ * <p>
+ * For blocking channels {@link #readUpdate()} blocks until next complete message is received, for non-blocking
+ * channels and files it returns immediately if no complete message available.
+ */
+public class ULogStreamReader implements Closeable {
+    /**
+     * Buffer must fit the largest possible message.
+     */
+    private static final int BUFFER_SIZE = 0x20000;
+
+    private final ReadableByteChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    private final ErrorLog errors = new ErrorLog();
+    private final ULogHeader header = new ULogHeader(errors);
+    private final Map<Integer, Subscription> subscriptions = new HashMap<>();
+    private final ArrayList<Subscription> updatedSubscriptions = new ArrayList<>();
+    private boolean fileHeaderRead = false;
+    private boolean endOfStream = false;
+    private long bufferPosition = 0;
+    private long timeLast = Long.MIN_VALUE;
+    // Start of corrupted data being skipped or -1, data may be skipped across several reads
+    private long resyncStart = -1;
+
+    public ULogStreamReader(ReadableByteChannel channel) {
+        this.channel = channel;
+        buffer.flip();
+    }
+
+    /**
+     * Open log file for tailing, new data appended to the file is returned by next {@link #readUpdate()} calls.
+     */
+    public static ULogStreamReader open(Path path) throws IOException {
+        return new ULogStreamReader(FileChannel.open(path, StandardOpenOption.READ));
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Read messages until at least one of the subscriptions updated or no complete messages available.
+     *
+     * @return timestamp of the update or -1 if no complete message available yet
+     * @throws FormatErrorException if stream is not a ULog
+     */
+    public long readUpdate() throws IOException, FormatErrorException {
+        for (Subscription sub : updatedSubscriptions) {
+            sub.clearUpdated();
+        }
+        updatedSubscriptions.clear();
+        timeLast = Long.MIN_VALUE;
+        while (timeLast == Long.MIN_VALUE) {
+            if (!readMessage()) {
+                return -1;
+            }
+        }
+        return timeLast;
+    }
+
+    /**
+     * Read and handle next message if it's completely available.
+     *
+     * @return false if more data required
+     */
+    private boolean readMessage() throws IOException, FormatErrorException {
+        if (!fileHeaderRead) {
+            if (!fill(ULogHeader.FILE_HEADER_SIZE)) {
+                return false;
+            }
+            header.parseFileHeader(buffer);
+            bufferPosition += ULogHeader.FILE_HEADER_SIZE;
+            fileHeaderRead = true;
+        }
+        while (true) {
+            if (!fill(ULogHeader.MESSAGE_HEADER_SIZE)) {
+                return false;
+            }
+            int p = buffer.position();
+            long pos = bufferPosition;
+            if (buffer.get(p) != ULogHeader.SYNC_BYTE || !ULogHeader.isMessageType(buffer.get(p + 1))) {
+                if (resyncStart < 0) {
+                    resyncStart = pos;
+                }
+                int next = ULogHeader.findMessageStart(buffer, p + 1, buffer.limit());
+                // Keep the last byte if not found, it may be sync byte of the message continued in next part
+                skip((next >= 0 ? next : buffer.limit() - 1) - p);
+                continue;
+            }
+            if (resyncStart >= 0) {
+                errors.add(ErrorLog.Kind.SYNC, resyncStart, "Invalid message header, skipped " + (pos - resyncStart) + " bytes");
+                resyncStart = -1;
+            }
+            int msgType = buffer.get(p + 1) & 0xFF;
+            int msgSize = buffer.getShort(p + 2) & 0xFFFF;
+            if (!fill(ULogHeader.MESSAGE_HEADER_SIZE + msgSize)) {
+                return false;
+            }
+            // Buffer may be compacted by fill
+            int bp = buffer.position() + ULogHeader.MESSAGE_HEADER_SIZE;
+            buffer.position(bp);
+            try {
+                if (msgType == ULogHeader.MESSAGE_TYPE_DATA) {
+                    handleData(bp, msgSize);
+                } else {
+                    header.handleDefinition(buffer, pos, msgType, msgSize);
+                }
+            } catch (Exception e) {
+                errors.add(ErrorLog.Kind.PARSE, pos, "Error parsing message typeName: " + msgType, e);
+            }
+            buffer.position(bp - ULogHeader.MESSAGE_HEADER_SIZE);
+            skip(ULogHeader.MESSAGE_HEADER_SIZE + msgSize);
+            return true;
+        }
+    }
+
+    private void handleData(int bp, int msgSize) {
+        int msgId = header.getDataMsgId(buffer, bp);
+        Subscription sub = subscriptions.get(msgId);
+        if (sub != null) {
+            int offset = header.msgDataTimestampOffset;
+            int multiId = buffer.get(bp + offset - 1) & 0xFF;
+            long timestamp = buffer.getLong(bp + offset);
+            buffer.position(bp + offset + 8);
+            if (sub.accept(buffer, bp + offset + 8, bp + msgSize, timestamp) && sub.update(buffer, multiId)) {
+                updatedSubscriptions.add(sub);
+                timeLast = timestamp;
+            }
+        }
+    }
+
+    private void skip(int n) {
+        buffer.position(buffer.position() + n);
+        bufferPosition += n;
+    }
+
+    /**
+     * Read from channel until specified number of bytes available in buffer.
+     *
+     * @return false if not enough data available now
+     */
+    private boolean fill(int required) throws IOException {
+        while (buffer.remaining() < required) {
+            buffer.compact();
+            int n;
+            try {
+                n = channel.read(buffer);
+            } finally {
+                buffer.flip();
+            }
+            if (n < 0) {
+                // File may grow later, so keep reading on next calls
+                endOfStream = true;
+                return false;
+            }
+            endOfStream = false;
+            if (n == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Check if end of stream was reached on last read. For files it means that all data written so far was read.
+     */
+    public boolean isEndOfStream() {
+        return endOfStream;
+    }
+
+    /**
+     * Get position in the stream of the next message to read.
+     */
+    public long position() {
+        return bufferPosition;
+    }
+
+    public boolean isTopicDefined(String topicName) {
+        return header.topicByName.containsKey(topicName);
+    }
+
+    public Subscription addSubscription(String topicName) {
+        return addSubscription(topicName, DecodeMode.EAGER);
+    }
+
+    /**
+     * Add subscription to topic. Topic must be already defined in the stream, see {@link #isTopicDefined(String)}.
+     * If subscription to the topic already exists, return existing one, regardless of its decode mode.
+     *
+     * @param topicName topic name (without multiId)
+     * @param mode      decode mode of the subscription
+     * @return subscription object
+     * @throws SubscriptionException if topic is not defined yet
+     */
+    public Subscription addSubscription(String topicName, DecodeMode mode) {
+        Topic topic = header.topicByName.get(topicName);
+        if (topic == null) {
+            throw new SubscriptionException("Topic not found: " + topicName);
+        }
+        Type topicType = header.codec.getTypeDescription(topic.getTypeName());
+        var sub = subscriptions.get(topic.getId());
+        if (sub == null) {
+            sub = new Subscription(header.codec, topicName, topicType, mode);
+            subscriptions.put(topic.getId(), sub);
+        }
+        return sub;
+    }
+
+    public void removeAllSubscriptions() {
+        subscriptions.clear();
+        updatedSubscriptions.clear();
+    }
+
+    public List<Subscription> getUpdatedSubscriptions() {
+        return updatedSubscriptions;
+    }
+
+    /**
+     * Get fields of topics defined so far.
+     */
+    public Map<String, String> getFields() {
+        return header.fieldsList;
+    }
+
+    public String getFormat() {
+        return "ULog v" + header.logVersion;
+    }
+
+    public String getSystemName() {
+        return header.systemName;
+    }
+
+    public String getSystemConfig() {
+        return header.systemConfig;
+    }
+
+    public long getUTCTimeReferenceMicroseconds() {
+        return header.utcTimeReference;
+    }
+
+    public Map<String, Object> getVersion() {
+        return header.version;
+    }
+
+    public Map<String, Object> getParameters() {
+        return header.parameters;
+    }
+
+    public List<Exception> getErrors() {
+        return errors.getErrors();
+    }
+
+    /**
+     * Get errors with number of errors of every kind, including errors dropped from the bounded list.
+     */
+    public ErrorLog getErrorLog() {
+        return errors;
+    }
+
+    public void clearErrors() {
+        errors.clear();
+    }
+}
@@ -18,4 +18,23 @@ class VectorParser implements Parser {
         }
         return items;
     }
+
+    @Override
+    public Object parse(ByteBuffer buffer, Object reuse) {
+        int size = buffer.getInt();
+        Object[] items;
+        if (reuse instanceof Object[] arr && arr.length == size) {
+            items = arr;
+        } else {
+            // Size changed, reuse elements of previous value
+            items = new Object[size];
+            if (reuse instanceof Object[] arr) {
+                System.arraycopy(arr, 0, items, 0, Math.min(arr.length, size));
+            }
+        }
+        for (int i = 0; i < size; i++) {
+            items[i] = itemParser.parse(buffer, items[i]);
+        }
+        return items;
+    }
 }
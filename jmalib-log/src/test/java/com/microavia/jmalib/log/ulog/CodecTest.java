@@ -4,6 +4,10 @@ import com.microavia.jmalib.log.ulog.model.StructType;
 import com.microavia.jmalib.log.ulog.model.TypeClass;
 import org.junit.jupiter.api.Test;
 
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+
 import static org.junit.jupiter.api.Assertions.*;
 
 class CodecTest {
@@ -40,6 +44,26 @@ class CodecTest {
         assertEquals(TypeClass.SCALAR, codec.getTypeDescription(fields[3].typeName()).getTypeClass());
     }
 
+    @Test
+    void cache() {
+        Codec codec = new Codec();
+        codec.addStructType("foo_struct", "bar_struct bar;uint32[2] arr;");
+        // Nested type is not defined yet
+        assertNull(codec.getTypeDescription("bar_struct"));
+        codec.addStructType("bar_struct", "uint32 a");
+        var barType = codec.getTypeDescription("bar_struct");
+        assertNotNull(barType);
+        assertSame(barType, codec.getTypeDescription("bar_struct"));
+        assertSame(codec.getTypeDescription("uint32[2]"), codec.getTypeDescription("uint32[2]"));
+        var parser = codec.getValueParser("foo_struct");
+        assertSame(parser, codec.getValueParser("foo_struct"));
+
+        codec.freeze();
+        assertThrows(IllegalStateException.class, () -> codec.addStructType("baz_struct", "uint8 b"));
+        assertThrows(IllegalStateException.class, () -> codec.setCompiledParsers(true));
+        assertSame(parser, codec.getValueParser("foo_struct"));
+    }
+
     @Test
     void getter() {
         Codec codec = createTestCodec();
@@ -61,4 +85,63 @@ class CodecTest {
         assertEquals(1, arrGetter.get());
         assertEquals(4, vecGetter.get());
     }
+
+    @Test
+    void compiledParser() {
+        var codec = new Codec();
+        codec.addStructType("bar_struct", "uint32 a;string s;int8[2] b;");
+        codec.addStructType("baz_struct", "bar_struct[2] bars;bar_struct[] bar_vec;float32[] f_vec;bool flag;float64 d;int16 i16;uint64 u64;");
+        var buf = ByteBuffer.allocate(1024).order(ByteOrder.LITTLE_ENDIAN);
+        for (int i = 0; i < 5; i++) {
+            // bar_struct: a, s, b
+            buf.putInt(-i).putInt(2).put("ab".getBytes(StandardCharsets.ISO_8859_1)).put((byte) i).put((byte) -i);
+            if (i == 1) {
+                // bars done, start bar_vec with 3 elements
+                buf.putInt(3);
+            }
+        }
+        buf.putInt(2).putFloat(1.5f).putFloat(-2.5f);
+        buf.put((byte) 1).putDouble(3.25).putShort((short) -7).putLong(Long.MAX_VALUE);
+        buf.flip();
+
+        var type = codec.getTypeDescription("baz_struct");
+        Object expected = codec.getValueParser(type).parse(buf.duplicate().order(ByteOrder.LITTLE_ENDIAN));
+        codec.setCompiledParsers(true);
+        Parser compiled = codec.getValueParser(type);
+        assertInstanceOf(CompiledStructParser.class, compiled);
+        var compiledBuf = buf.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        Object actual = compiled.parse(compiledBuf);
+        assertArrayEquals((Object[]) expected, (Object[]) actual);
+        assertFalse(compiledBuf.hasRemaining());
+        // uint32 is decoded as Long
+        assertEquals(4294967295L, ((Object[]) ((Object[]) ((Object[]) actual)[0])[1])[0]);
+    }
+
+    @Test
+    void reuseScalars() {
+        for (boolean compiledParsers : new boolean[]{false, true}) {
+            var codec = new Codec();
+            codec.setCompiledParsers(compiledParsers);
+            codec.addStructType("qux_struct", "float32 f;float64 d;uint16 u16;int32 i32;uint32 u32;int64 i64;float32[2] f_arr;");
+            var parser = codec.getValueParser("qux_struct");
+            var buf = ByteBuffer.allocate(64).order(ByteOrder.LITTLE_ENDIAN);
+            buf.putFloat(1.5f).putDouble(2.5).putShort((short) 40000).putInt(100000).putInt(-1).putLong(1L << 40);
+            buf.putFloat(3.5f).putFloat(4.5f).flip();
+            var first = (Object[]) parser.parse(buf.duplicate().order(ByteOrder.LITTLE_ENDIAN), null);
+            var boxes = first.clone();
+            var arrBoxes = ((Object[]) first[6]).clone();
+            // Equal values keep boxes of the previous value
+            var second = (Object[]) parser.parse(buf.duplicate().order(ByteOrder.LITTLE_ENDIAN), first);
+            assertSame(first, second);
+            for (int i = 0; i < 6; i++) {
+                assertSame(boxes[i], second[i]);
+            }
+            assertSame(arrBoxes[0], ((Object[]) second[6])[0]);
+            // Changed values are boxed
+            buf.putFloat(0, 7.5f);
+            var third = (Object[]) parser.parse(buf.duplicate().order(ByteOrder.LITTLE_ENDIAN), second);
+            assertEquals(7.5f, third[0]);
+            assertSame(boxes[1], third[1]);
+        }
+    }
 }
@@ -0,0 +1,77 @@
+package com.microavia.jmalib.log.ulog;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ResamplerTest {
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void grid() throws Exception {
+        Path path = tempDir.resolve("grid.ulg");
+        ULogTestWriter.writeTestLog(path, 2);
+        ULogReader reader = new ULogReader(path.toString());
+        var fields = List.of("SENSOR.acc.x", "ATTITUDE_POSITION.counter", "STATUS.arming_state");
+        var resampler = Resampler.onGrid(reader, fields, Resampler.Interpolation.LINEAR, 1_000_500, 10_000);
+        double[] row = resampler.getRow();
+        int n = 0;
+        while (resampler.next()) {
+            long t = resampler.getTimestamp();
+            assertEquals(1_000_500 + n * 10_000L, t);
+            assertSame(row, resampler.getRow());
+            assertEquals((t - 1_000_000) / 1e6, row[0], 1e-5);
+            // Held after the last samples at 2.99 s and 2 s
+            assertEquals((Math.min(t, 2_990_000) - 1_000_000) / 1000.0, row[1], 1e-9);
+            assertEquals(Math.min(t - 1_000_000, 1_000_000) / 1e6, row[2], 1e-9);
+            n++;
+        }
+        // Last SENSOR message at 2.999 s
+        assertEquals(200, n);
+        reader.close();
+    }
+
+    @Test
+    void drivingTopic() throws Exception {
+        Path path = tempDir.resolve("driving.ulg");
+        ULogTestWriter.writeTestLog(path, 2);
+        ULogReader reader = new ULogReader(path.toString());
+        var fields = List.of("SENSOR.acc.x", "ATTITUDE_POSITION.counter", "STATUS.arming_state");
+        var resampler = Resampler.onTopic(reader, fields, Resampler.Interpolation.HOLD, "ATTITUDE_POSITION");
+        int n = 0;
+        while (resampler.next()) {
+            int i = n * 10;
+            assertEquals(1_000_000 + i * 1000L, resampler.getTimestamp());
+            assertEquals(i * 0.001f, (float) resampler.getValue(0));
+            assertEquals(i, resampler.getValue(1));
+            assertEquals(i / 1000, resampler.getValue(2));
+            n++;
+        }
+        assertEquals(200, n);
+        reader.close();
+    }
+
+    @Test
+    void capacity() throws Exception {
+        Path path = tempDir.resolve("capacity.ulg");
+        ULogTestWriter.writeTestLog(path, 3);
+        var fields = List.of("SENSOR.acc.x", "STATUS.arming_state");
+        ULogReader reader = new ULogReader(path.toString());
+        // Rows waiting for the next STATUS message don't fit, the last value is held
+        var resampler = Resampler.onGrid(reader, fields, Resampler.Interpolation.LINEAR, 1_000_000, 100_000, 2);
+        int n = 0;
+        while (resampler.next()) {
+            long t = resampler.getTimestamp();
+            assertEquals(1_000_000 + n * 100_000L, t);
+            assertEquals(((t - 1_000_000) / 1_000_000) % 3, resampler.getValue(1));
+            n++;
+        }
+        assertEquals(30, n);
+        reader.close();
+    }
+}
@@ -0,0 +1,80 @@
+package com.microavia.jmalib.log.ulog;
+
+import com.microavia.jmalib.log.ByteBufferPool;
+import com.microavia.jmalib.log.ReaderOptions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.EOFException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ULogBatchProcessorTest {
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void process() throws Exception {
+        List<Path> paths = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            Path path = tempDir.resolve("log" + i + ".ulg");
+            ULogTestWriter.writeTestLog(path, i + 1);
+            paths.add(path);
+        }
+        Path broken = tempDir.resolve("broken.ulg");
+        Files.writeString(broken, "not a log");
+        paths.add(3, broken);
+        // Count buffers taken from the pool and not returned
+        var acquired = new AtomicInteger();
+        var pool = new ByteBufferPool(new ReaderOptions().getBufferSize(), 3) {
+            @Override
+            public ByteBuffer acquire() {
+                acquired.incrementAndGet();
+                return super.acquire();
+            }
+
+            @Override
+            public void release(ByteBuffer buffer) {
+                acquired.decrementAndGet();
+                super.release(buffer);
+            }
+        };
+
+        var processor = new ULogBatchProcessor<>(reader -> {
+            var getter = reader.addSubscription("ATTITUDE_POSITION").createGetter("counter");
+            long n = 0;
+            try {
+                while (true) {
+                    reader.readUpdate();
+                    if (getter.isUpdated()) {
+                        n++;
+                    }
+                }
+            } catch (EOFException ignored) {
+            }
+            return n;
+        }, 3).setReaderOptions(new ReaderOptions().setBufferPool(pool));
+        var batch = processor.process(paths);
+
+        assertEquals(11, batch.getResults().size());
+        assertEquals(1, batch.getFailedCount());
+        assertFalse(batch.getResults().get(3).isSuccess());
+        assertNull(batch.getResults().get(3).getResult());
+        for (int i = 0; i < 10; i++) {
+            var r = batch.getResults().get(i < 3 ? i : i + 1);
+            assertTrue(r.isSuccess());
+            assertEquals(paths.get(i < 3 ? i : i + 1), r.getPath());
+            assertEquals((i + 1) * 100L, r.getResult());
+            assertEquals(Files.size(r.getPath()), r.getSizeBytes());
+        }
+        assertTrue(batch.getBytesPerSecond() > 0);
+        // Reader of the broken log is closed too
+        assertEquals(0, acquired.get());
+    }
+}
@@ -0,0 +1,101 @@
+package com.microavia.jmalib.log.ulog;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ULogPipelineTest {
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void run() throws Exception {
+        Path path = tempDir.resolve("pipeline.ulg");
+        ULogTestWriter.writeTestLog(path, 5);
+        ULogReader reader = new ULogReader(path.toString());
+        var expected = ULogReaderTest.readAll(reader, 0);
+        reader.close();
+
+        reader = new ULogReader(path.toString());
+        // Small buffer to make producer wait for analyzers
+        var pipeline = new ULogPipeline(reader, 16);
+        var altEl = pipeline.createGetter("ATTITUDE_POSITION", "alt_el");
+        var vec = pipeline.createGetter("ATTITUDE_POSITION", "vec");
+        var counter = pipeline.createGetter("ATTITUDE_POSITION", "counter");
+        var accX = pipeline.createGetter("SENSOR", "acc.x");
+        var flags = pipeline.createGetter("SENSOR", "flags[3]");
+        var arming = pipeline.createGetter("STATUS", "arming_state");
+        List<String> all = new ArrayList<>();
+        List<String> attPos = new ArrayList<>();
+        List<Long> statusTimes = new ArrayList<>();
+        pipeline.addAnalyzer("all")
+                .on("ATTITUDE_POSITION", m -> all.add(m.getTimestamp() + " ATTITUDE_POSITION " + m.getMultiId() + " "
+                        + altEl.getFrom(m.getValue()) + " " + Arrays.toString((Object[]) vec.getFrom(m.getValue()))
+                        + " " + counter.getFrom(m.getValue())))
+                .on("SENSOR", m -> all.add(m.getTimestamp() + " SENSOR " + m.getMultiId() + " "
+                        + accX.getFrom(m.getValue()) + " " + flags.getFrom(m.getValue())))
+                .on("STATUS", m -> all.add(m.getTimestamp() + " STATUS " + m.getMultiId() + " " + arming.getFrom(m.getValue())));
+        pipeline.addAnalyzer("att_pos").on("ATTITUDE_POSITION", m -> {
+            Thread.sleep(0, 1000);
+            attPos.add(m.getTimestamp() + " " + counter.getFrom(m.getValue()));
+        });
+        pipeline.addAnalyzer("status").on("STATUS", m -> statusTimes.add(m.getTimestamp()));
+        pipeline.run();
+
+        assertEquals(expected, all);
+        assertEquals(500, attPos.size());
+        for (int i = 0; i < attPos.size(); i++) {
+            assertEquals((1_000_000 + i * 10_000L) + " " + i * 10, attPos.get(i));
+        }
+        assertEquals(List.of(1_000_000L, 2_000_000L, 3_000_000L, 4_000_000L, 5_000_000L), statusTimes);
+        for (var analyzer : pipeline.getAnalyzers()) {
+            assertNull(analyzer.getException());
+        }
+        reader.close();
+    }
+
+    @Test
+    void analyzerFailure() throws Exception {
+        Path path = tempDir.resolve("failure.ulg");
+        ULogTestWriter.writeTestLog(path, 2);
+        ULogReader reader = new ULogReader(path.toString());
+        var pipeline = new ULogPipeline(reader, 4);
+        long[] count = new long[1];
+        pipeline.addAnalyzer("failing").on("SENSOR", m -> {
+            throw new IllegalStateException("test");
+        });
+        pipeline.addAnalyzer("counting").on("SENSOR", m -> count[0]++);
+        var e = assertThrows(ExecutionException.class, pipeline::run);
+        assertInstanceOf(IllegalStateException.class, e.getCause());
+        assertNotNull(pipeline.getAnalyzers().get(0).getException());
+        // Other analyzers receive all messages
+        assertEquals(2000, count[0]);
+        reader.close();
+    }
+
+    @Test
+    void analyzerError() throws Exception {
+        Path path = tempDir.resolve("error.ulg");
+        ULogTestWriter.writeTestLog(path, 1);
+        ULogReader reader = new ULogReader(path.toString());
+        var pipeline = new ULogPipeline(reader, 16);
+        long[] count = new long[1];
+        pipeline.addAnalyzer("failing").on("SENSOR", m -> {
+            throw new AssertionError("test");
+        });
+        pipeline.addAnalyzer("counting").on("SENSOR", m -> count[0]++);
+        // Failed analyzer must not block the ring
+        var e = assertTimeoutPreemptively(Duration.ofSeconds(10), () -> assertThrows(ExecutionException.class, pipeline::run));
+        assertInstanceOf(AssertionError.class, e.getCause().getCause());
+        assertEquals(1000, count[0]);
+        reader.close();
+    }
+}
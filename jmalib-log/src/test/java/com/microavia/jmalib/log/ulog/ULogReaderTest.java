@@ -1,10 +1,30 @@
 package com.microavia.jmalib.log.ulog;
 
+import com.microavia.jmalib.log.ErrorLog;
 import com.microavia.jmalib.log.FormatErrorException;
+import com.microavia.jmalib.log.ReaderOptions;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 
+import java.io.ByteArrayOutputStream;
 import java.io.EOFException;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
 
 class ULogReaderTest {
     @Test
@@ -36,4 +56,991 @@ class ULogReaderTest {
         System.out.println(tEnd - tStart);
         reader.close();
     }
+
+    @TempDir
+    Path tempDir;
+
+    static List<String> readAll(ULogReader reader, long seekTime) throws IOException, FormatErrorException {
+        return readAll(reader, seekTime, DecodeMode.EAGER);
+    }
+
+    static List<String> readAll(ULogReader reader, long seekTime, DecodeMode mode) throws IOException, FormatErrorException {
+        var attPos = reader.addSubscription("ATTITUDE_POSITION", mode);
+        var altEl = attPos.createGetter("alt_el");
+        var vec = attPos.createGetter("vec");
+        var counter = attPos.createGetter("counter");
+        var sensor = reader.addSubscription("SENSOR", mode);
+        var accX = sensor.createGetter("acc.x");
+        var flags = sensor.createGetter("flags[3]");
+        var status = reader.addSubscription("STATUS", mode);
+        var arming = status.createGetter("arming_state");
+        List<String> res = new ArrayList<>();
+        reader.seek(seekTime);
+        try {
+            while (true) {
+                long t = reader.readUpdate();
+                for (var sub : reader.getUpdatedSubscriptions()) {
+                    String v = switch (sub.getTopicName()) {
+                        case "ATTITUDE_POSITION" -> altEl.get() + " " + Arrays.toString((Object[]) vec.get()) + " " + counter.get();
+                        case "SENSOR" -> accX.get() + " " + flags.get();
+                        default -> String.valueOf(arming.get());
+                    };
+                    res.add(t + " " + sub.getTopicName() + " " + sub.getMultiId() + " " + v);
+                }
+            }
+        } catch (EOFException ignored) {
+        }
+        return res;
+    }
+
+    @Test
+    void mappedReader() throws Exception {
+        Path path = tempDir.resolve("mapped.ulg");
+        ULogTestWriter.writeTestLog(path, 10);
+        ULogReader buffered = new ULogReader(path.toString());
+        // Use small segments to test switching between mappings
+        ULogReader mapped = new ULogReader(path.toString(), new ReaderOptions()
+                .setIOMode(ReaderOptions.IOMode.MAPPED).setMappedSegmentSize(100_000));
+        assertEquals(buffered.getSizeUpdates(), mapped.getSizeUpdates());
+        assertEquals(buffered.getStartMicroseconds(), mapped.getStartMicroseconds());
+        assertEquals(buffered.getSizeMicroseconds(), mapped.getSizeMicroseconds());
+        assertEquals(buffered.getParameters(), mapped.getParameters());
+        assertEquals("TestSystem", mapped.getSystemName());
+        assertTrue(mapped.getErrors().isEmpty());
+        var expected = readAll(buffered, 0);
+        assertEquals(10000 + 1000 + 10, expected.size());
+        assertEquals(expected, readAll(mapped, 0));
+        assertEquals(readAll(buffered, 7_654_321), readAll(mapped, 7_654_321));
+        buffered.close();
+        mapped.close();
+    }
+
+    @Test
+    void readAheadReader() throws Exception {
+        Path path = tempDir.resolve("read_ahead.ulg");
+        ULogTestWriter.writeTestLog(path, 10);
+        ULogReader buffered = new ULogReader(path.toString());
+        // Use small blocks to test switching between blocks and discarding of prefetched blocks on seek
+        ULogReader readAhead = new ULogReader(path.toString(), new ReaderOptions()
+                .setIOMode(ReaderOptions.IOMode.READ_AHEAD).setReadAheadBlockSize(5000).setReadAheadDepth(3));
+        assertEquals(buffered.getSizeUpdates(), readAhead.getSizeUpdates());
+        assertEquals(buffered.getSizeMicroseconds(), readAhead.getSizeMicroseconds());
+        assertTrue(readAhead.getErrors().isEmpty());
+        var expected = readAll(buffered, 0);
+        assertEquals(expected, readAll(readAhead, 0));
+        for (long seekTime : new long[]{7_654_321, 1_500_000, 10_999_000, 3_000_000}) {
+            assertEquals(readAll(buffered, seekTime), readAll(readAhead, seekTime));
+        }
+        buffered.close();
+        readAhead.close();
+    }
+
+    @Test
+    void largeMessages() throws Exception {
+        Path path = tempDir.resolve("large.ulg");
+        try (var w = new ULogTestWriter(path)) {
+            w.format("blob", "uint16 id;uint8[] data;");
+            w.topic(1, "BLOB", "blob");
+            for (int i = 0; i < 20; i++) {
+                var b = w.data(1, 0x80, 1000L * (i + 1));
+                b.putShort((short) i);
+                int size = 65535 - 2 - 11 - 4 - i * 1000;
+                b.putInt(size);
+                for (int j = 0; j < size; j++) {
+                    b.put((byte) (i + j));
+                }
+                w.end();
+            }
+        }
+        var options = List.of(
+                new ReaderOptions().setBufferSize(4096),
+                new ReaderOptions().setBufferSize(4096).setDirectBuffers(true),
+                new ReaderOptions().setIOMode(ReaderOptions.IOMode.READ_AHEAD).setReadAheadBlockSize(10000),
+                new ReaderOptions().setIOMode(ReaderOptions.IOMode.MAPPED));
+        for (var opts : options) {
+            ULogReader reader = new ULogReader(path.toString(), opts);
+            assertTrue(reader.getErrors().isEmpty(), reader.getErrors().toString());
+            assertEquals(20, reader.getSizeUpdates());
+            var sub = reader.addSubscription("BLOB");
+            var id = sub.createGetter("id");
+            var data = sub.createGetter("data");
+            for (int i = 0; i < 20; i++) {
+                reader.readUpdate();
+                assertEquals(i, id.getInt());
+                var arr = (Object[]) data.get();
+                assertEquals(65535 - 17 - i * 1000, arr.length);
+                assertEquals((i + arr.length - 1) & 0xFF, arr[arr.length - 1]);
+            }
+            assertThrows(EOFException.class, reader::readUpdate);
+            reader.close();
+        }
+    }
+
+    @Test
+    void indexFile() throws Exception {
+        Path path = tempDir.resolve("indexed.ulg");
+        Path indexPath = tempDir.resolve("indexed.ulg.idx");
+        ULogTestWriter.writeTestLog(path, 5);
+        var options = new ReaderOptions().setIndexFileEnabled(true);
+        ULogReader scanned = new ULogReader(path.toString(), options);
+        assertTrue(Files.exists(indexPath));
+        var expected = readAll(scanned, 0);
+        scanned.close();
+
+        // Open using index
+        ULogReader indexed = new ULogReader(path.toString(), options);
+        assertEquals(scanned.getSizeUpdates(), indexed.getSizeUpdates());
+        assertEquals(scanned.getStartMicroseconds(), indexed.getStartMicroseconds());
+        assertEquals(scanned.getSizeMicroseconds(), indexed.getSizeMicroseconds());
+        assertEquals(scanned.getParameters(), indexed.getParameters());
+        assertEquals(scanned.getVersion(), indexed.getVersion());
+        assertEquals(scanned.getFields(), indexed.getFields());
+        assertEquals(expected, readAll(indexed, 0));
+        indexed.close();
+
+        // Outdated index must be rebuilt
+        Files.setLastModifiedTime(path, FileTime.fromMillis(Files.getLastModifiedTime(path).toMillis() + 10_000));
+        Files.setLastModifiedTime(indexPath, FileTime.fromMillis(0));
+        ULogReader rebuilt = new ULogReader(path.toString(), options);
+        assertEquals(scanned.getSizeUpdates(), rebuilt.getSizeUpdates());
+        assertNotEquals(0, Files.getLastModifiedTime(indexPath).toMillis());
+        rebuilt.close();
+
+        // Corrupted index must be rebuilt, number of definitions follows the header
+        assertNotNull(ULogIndex.load(path));
+        for (int n : new int[]{-1, Integer.MAX_VALUE}) {
+            try (FileChannel channel = FileChannel.open(indexPath, StandardOpenOption.WRITE)) {
+                channel.write(ByteBuffer.allocate(4).putInt(0, n), 56);
+            }
+            assertNull(ULogIndex.load(path));
+            rebuilt = new ULogReader(path.toString(), options);
+            assertEquals(scanned.getSizeUpdates(), rebuilt.getSizeUpdates());
+            rebuilt.close();
+            assertNotNull(ULogIndex.load(path));
+        }
+
+        // Index can't be written, temporary file must be deleted
+        Path unsavedPath = tempDir.resolve("unsaved.ulg");
+        try (var w = new ULogTestWriter(unsavedPath)) {
+            w.format("status", "uint8 arming_state;uint64 uptime;");
+            w.topic(ULogTestWriter.STATUS_ID, "STATUS", "status");
+            // Too long for modified UTF-8 of the index
+            w.logging(4, 1_000_000, "\u00e9".repeat(40_000));
+        }
+        ULogReader unsaved = new ULogReader(unsavedPath.toString(), options);
+        assertEquals(1, unsaved.getLogMessages().size());
+        unsaved.close();
+        assertFalse(Files.exists(tempDir.resolve("unsaved.ulg.idx")));
+        try (var files = Files.list(tempDir)) {
+            assertEquals(List.of(), files.filter(p -> p.toString().endsWith(".tmp")).toList());
+        }
+    }
+
+    @Test
+    void sharedFile() throws Exception {
+        Path path = tempDir.resolve("shared.ulg");
+        ULogTestWriter.writeTestLog(path, 5);
+        ULogReader reader = new ULogReader(path.toString());
+        var expected = readAll(reader, 0);
+        reader.close();
+
+        var file = ULogFile.open(path.toString());
+        assertEquals(reader.getSizeUpdates(), file.getSizeUpdates());
+        assertEquals(reader.getStartMicroseconds(), file.getStartMicroseconds());
+        assertEquals(reader.getSizeMicroseconds(), file.getSizeMicroseconds());
+        assertEquals(reader.getFields(), file.getFields());
+        assertEquals("TestSystem", file.getSystemName());
+        // Readers of the same file in different threads, every one with own position and subscriptions
+        List<Future<List<String>>> results = new ArrayList<>();
+        try (var executor = Executors.newFixedThreadPool(4)) {
+            for (int i = 0; i < 8; i++) {
+                long seekTime = i * 500_000L;
+                results.add(executor.submit(() -> {
+                    ULogReader r = file.openReader();
+                    try {
+                        assertSame(file, r.getFile());
+                        return readAll(r, seekTime);
+                    } finally {
+                        r.close();
+                    }
+                }));
+            }
+            for (int i = 0; i < results.size(); i++) {
+                long seekTime = i * 500_000L;
+                assertEquals(expected.stream().filter(s -> Long.parseLong(s.split(" ")[0]) >= seekTime).toList(),
+                        results.get(i).get());
+            }
+        }
+    }
+
+    @Test
+    void sharedCodec() throws Exception {
+        Path path1 = tempDir.resolve("codec1.ulg");
+        Path path2 = tempDir.resolve("codec2.ulg");
+        ULogTestWriter.writeTestLog(path1, 1);
+        ULogTestWriter.writeTestLog(path2, 2);
+        ULogReader reader1 = new ULogReader(path1.toString());
+        ULogReader reader2 = new ULogReader(path2.toString());
+        ULogReader compiled = new ULogReader(path2.toString(), new ReaderOptions().setCompiledParsers(true));
+        // Same definitions, same codec
+        Codec codec = reader1.getFile().header.codec;
+        assertTrue(codec.isFrozen());
+        assertSame(codec, reader2.getFile().header.codec);
+        assertNotSame(codec, compiled.getFile().header.codec);
+        assertEquals(readAll(reader1, 0), readAll(reader2, 0).subList(0, readAll(reader1, 0).size()));
+        reader1.close();
+        reader2.close();
+        compiled.close();
+    }
+
+    @Test
+    void lazyScan() throws Exception {
+        Path path = tempDir.resolve("lazy_scan.ulg");
+        ULogTestWriter.writeTestLog(path, 5);
+        // Truncated last message
+        Files.write(path, new byte[]{'>', 'D', 0x40, 0x00, 0x01, 0x00}, StandardOpenOption.APPEND);
+        ULogReader full = new ULogReader(path.toString());
+        var expected = readAll(full, 0);
+        full.close();
+
+        ULogReader lazy = new ULogReader(path.toString(), new ReaderOptions().setLazyScan(true));
+        var file = lazy.getFile();
+        assertFalse(file.isScanned());
+        assertEquals(full.getSystemName(), lazy.getSystemName());
+        assertEquals(full.getVersion(), lazy.getVersion());
+        assertEquals(full.getParameters(), lazy.getParameters());
+        assertEquals(full.getFields(), lazy.getFields());
+        assertEquals(full.getStartMicroseconds(), lazy.getStartMicroseconds());
+        assertEquals(full.getSizeMicroseconds(), lazy.getSizeMicroseconds());
+        // Sequential reading doesn't require scan
+        assertEquals(expected, readAll(lazy, 0));
+        assertFalse(file.isScanned());
+
+        assertEquals(full.getSizeUpdates(), lazy.getSizeUpdates());
+        assertTrue(file.isScanned());
+        assertEquals(full.getSizeMicroseconds(), lazy.getSizeMicroseconds());
+        assertEquals(full.getFile().getErrors().size(), file.getErrors().size());
+        lazy.close();
+
+        // Seeking requires index, log is scanned on demand
+        ULogReader seeking = ULogFile.open(path.toString(), new ReaderOptions().setLazyScan(true)).openReader();
+        assertFalse(seeking.getFile().isScanned());
+        long seekTime = 2_345_678;
+        assertEquals(expected.stream().filter(s -> Long.parseLong(s.split(" ")[0]) >= seekTime).toList(),
+                readAll(seeking, seekTime));
+        assertTrue(seeking.getFile().isScanned());
+        seeking.close();
+
+        // Format defined in the data section is added to the frozen codec of definitions section
+        Path formatsPath = tempDir.resolve("lazy_scan_formats.ulg");
+        try (var w = new ULogTestWriter(formatsPath)) {
+            w.format("s1", "uint64 timestamp;float x;");
+            w.topic(1, "T1", "s1");
+            for (int i = 0; i < 10; i++) {
+                long t = 1_000_000 + i * 1000L;
+                if (i == 1) {
+                    w.format("s2", "uint64 timestamp;int32 y;");
+                    w.topic(2, "T2", "s2");
+                }
+                w.data(1, 0x80, t).putLong(t).putFloat(i);
+                w.end();
+                if (i >= 1) {
+                    w.data(2, 0x80, t).putLong(t).putInt(-i);
+                    w.end();
+                }
+            }
+        }
+        ULogReader formatsLazy = new ULogReader(formatsPath.toString(), new ReaderOptions().setLazyScan(true));
+        assertEquals(19, formatsLazy.getSizeUpdates());
+        assertTrue(formatsLazy.getFile().getErrors().isEmpty(), formatsLazy.getFile().getErrors().toString());
+        assertEquals("int32", formatsLazy.getFields().get("T2.y"));
+        var y = formatsLazy.addSubscription("T2").createGetter("y");
+        List<Object> values = new ArrayList<>();
+        formatsLazy.seek(0);
+        try {
+            while (true) {
+                formatsLazy.readUpdate();
+                if (y.isUpdated()) {
+                    values.add(y.get());
+                }
+            }
+        } catch (EOFException ignored) {
+        }
+        assertEquals(List.of(-1, -2, -3, -4, -5, -6, -7, -8, -9), values);
+        formatsLazy.close();
+    }
+
+    @Test
+    void lazyScanConcurrent() throws Exception {
+        Path path = tempDir.resolve("lazy_concurrent.ulg");
+        int messagesNum = 20000;
+        try (var w = new ULogTestWriter(path)) {
+            w.parameter("PARAM_A", 1.5f);
+            w.format("status", "uint8 arming_state;uint64 uptime;");
+            w.topic(ULogTestWriter.STATUS_ID, "STATUS", "status");
+            for (int i = 0; i < messagesNum; i++) {
+                long t = 1_000_000 + i * 1000L;
+                if (i == messagesNum / 2) {
+                    // Definitions in the data section
+                    w.topic(ULogTestWriter.SENSOR_ID, "STATUS_LATE", "status");
+                    w.parameter("PARAM_LATE", 2.5f);
+                }
+                var b = w.data(ULogTestWriter.STATUS_ID, 0x80, t);
+                b.put((byte) (i % 3));
+                b.putLong(t);
+                w.end();
+                if (i >= messagesNum / 2) {
+                    b = w.data(ULogTestWriter.SENSOR_ID, 0x80, t);
+                    b.put((byte) 0);
+                    b.putLong(t);
+                    w.end();
+                }
+            }
+        }
+        var file = ULogFile.open(path.toString(), new ReaderOptions().setLazyScan(true));
+        ULogHeader definitions = file.header;
+        var fields = Map.copyOf(file.getFields());
+        ULogReader opened = file.openReader();
+        // Readers subscribe and read while data section is scanned by another thread
+        List<Future<Integer>> results = new ArrayList<>();
+        Future<Long> scan;
+        try (var executor = Executors.newFixedThreadPool(5)) {
+            for (int i = 0; i < 4; i++) {
+                results.add(executor.submit(() -> {
+                    ULogReader r = file.openReader();
+                    try {
+                        var sub = r.addSubscription("STATUS");
+                        int n = 0;
+                        while (true) {
+                            try {
+                                r.readUpdate();
+                            } catch (EOFException e) {
+                                break;
+                            }
+                            assertTrue(sub.isUpdated());
+                            assertTrue(r.getFields().containsKey("STATUS.arming_state"));
+                            assertEquals(1.5f, r.getParameters().get("PARAM_A"));
+                            if (n++ % 100 == 0) {
+                                r.addSubscription("STATUS");
+                            }
+                        }
+                        return n;
+                    } finally {
+                        r.close();
+                    }
+                }));
+            }
+            scan = executor.submit(file::getSizeUpdates);
+        }
+        assertEquals(messagesNum + messagesNum / 2, scan.get());
+        for (var result : results) {
+            assertEquals(messagesNum, result.get());
+        }
+        // Header used before the scan is not modified, the new one is published
+        assertEquals(fields, definitions.fieldsList);
+        assertFalse(definitions.topicByName.containsKey("STATUS_LATE"));
+        assertFalse(definitions.parameters.containsKey("PARAM_LATE"));
+        assertNotSame(definitions, file.header);
+        assertSame(definitions.errors, file.header.errors);
+        assertTrue(file.getFields().containsKey("STATUS_LATE.arming_state"));
+        assertEquals(2.5f, file.getParameters().get("PARAM_LATE"));
+        // Reader opened before the scan uses new definitions
+        opened.addSubscription("STATUS_LATE");
+        int lateNum = 0;
+        try {
+            while (true) {
+                opened.readUpdate();
+                lateNum++;
+            }
+        } catch (EOFException ignored) {
+        }
+        assertEquals(messagesNum - messagesNum / 2, lateNum);
+        opened.close();
+    }
+
+    @Test
+    void corruptedData() throws Exception {
+        Path path = tempDir.resolve("clean.ulg");
+        ULogTestWriter.writeTestLog(path, 2);
+        ULogReader clean = new ULogReader(path.toString());
+        var expected = readAll(clean, 0);
+        var columnFields = List.of("SENSOR.acc.x", "ATTITUDE_POSITION.counter");
+        var expectedColumns = clean.readColumns(columnFields);
+        long dataStart = clean.getFile().dataStart;
+        clean.close();
+
+        // Short garbage after first 1000 data messages and 1 MB garbage block in the middle of the data,
+        // garbage contains sync bytes, but not followed by message type
+        byte[] data = Files.readAllBytes(path);
+        var out = new ByteArrayOutputStream();
+        out.write(data, 0, (int) dataStart);
+        int p = (int) dataStart;
+        int messages = 0;
+        while (p < data.length) {
+            int size = ULogHeader.MESSAGE_HEADER_SIZE + ((data[p + 2] & 0xFF) | (data[p + 3] & 0xFF) << 8);
+            out.write(data, p, size);
+            p += size;
+            if (++messages <= 1000) {
+                out.write(new byte[]{0x55, '>', 'z'});
+            } else if (messages == 1500) {
+                byte[] garbage = new byte[1 << 20];
+                for (int i = 0; i < garbage.length; i++) {
+                    garbage[i] = (byte) (i % 100 == 0 ? '>' : i % 100 == 1 ? 'x' : (i * 7) % 60);
+                }
+                out.write(garbage);
+            }
+        }
+        Path corrupted = tempDir.resolve("corrupted.ulg");
+        Files.write(corrupted, out.toByteArray());
+
+        for (var ioMode : ReaderOptions.IOMode.values()) {
+            ULogReader reader = new ULogReader(corrupted.toString(), new ReaderOptions().setIOMode(ioMode));
+            var errorLog = reader.getFile().getErrorLog();
+            assertEquals(1001, errorLog.getCount(ErrorLog.Kind.SYNC), ioMode.toString());
+            assertEquals(1001, errorLog.getTotalCount());
+            assertEquals(ErrorLog.DEFAULT_CAPACITY, reader.getErrors().size());
+            assertEquals(expected, readAll(reader, 0), ioMode.toString());
+            assertEquals(1001 * 2, reader.getErrorLog().getCount(ErrorLog.Kind.SYNC));
+            reader.close();
+        }
+
+        // Chunks read in parallel report the same errors as sequential reading
+        ULogReader reader = new ULogReader(corrupted.toString());
+        assertColumnsEquals(expectedColumns, reader.readColumns(columnFields, ForkJoinPool.commonPool()));
+        assertEquals(1001 * 2, reader.getErrorLog().getCount(ErrorLog.Kind.SYNC));
+        assertEquals(1001 * 2, reader.getErrorLog().getTotalCount());
+        reader.close();
+
+        try (var stream = ULogStreamReader.open(corrupted)) {
+            while (stream.readUpdate() >= 0) {
+            }
+            assertEquals(1001, stream.getErrorLog().getCount(ErrorLog.Kind.SYNC));
+        }
+    }
+
+    @Test
+    void syncAndDropouts() throws Exception {
+        Path path = tempDir.resolve("sync.ulg");
+        long appendedOffset;
+        try (var w = new ULogTestWriter(path)) {
+            // Appended offset is written below
+            w.flagBits(1, 0);
+            w.format("counter", "uint32 value;");
+            w.topic(1, "COUNTER", "counter");
+            for (int i = 0; i < 1000; i++) {
+                long t = 1_000_000 + i * 1000L;
+                if (i % 100 == 0) {
+                    w.sync();
+                }
+                if (i == 300) {
+                    w.dropout(250);
+                }
+                if (i == 500) {
+                    w.logging(4, t, "Low battery");
+                }
+                w.data(1, 0, t).putInt(i);
+                w.end();
+                if (i == 550) {
+                    // Corrupted data with valid looking message, skipped up to the next sync message
+                    w.raw(new byte[]{0x55, '>', 'D', 15, 0, 1, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0x3F, 0x42, 0x0F, 0});
+                }
+            }
+            // Truncated message, data appended after it
+            w.raw(new byte[]{'>', 'D', 15, 0, 1, 0});
+            appendedOffset = w.position();
+            for (int i = 1000; i < 1100; i++) {
+                w.data(1, 0, 1_000_000 + i * 1000L).putInt(i);
+                w.end();
+            }
+        }
+        try (var channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+            var offset = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN).putLong(appendedOffset).flip();
+            channel.write(offset, ULogHeader.FILE_HEADER_SIZE + ULogHeader.MESSAGE_HEADER_SIZE + 16);
+        }
+
+        List<Long> expected = new ArrayList<>();
+        for (long i = 0; i < 1100; i++) {
+            if (i <= 550 || i >= 600) {
+                expected.add(i);
+            }
+        }
+        // Index loaded from file on second iteration
+        for (int i = 0; i < 2; i++) {
+            ULogReader reader = new ULogReader(path.toString(), new ReaderOptions().setIndexFileEnabled(true));
+            assertEquals(List.of(new Dropout(1_299_000, 250_000)), reader.getDropouts());
+            assertEquals(List.of(new LogMessage(1_500_000, 4, "Low battery")), reader.getLogMessages());
+            var errorLog = reader.getFile().getErrorLog();
+            assertEquals(Map.of(ErrorLog.Kind.SYNC, 1L, ErrorLog.Kind.TRUNCATED, 1L), errorLog.getCounts(), errorLog.getErrors().toString());
+            var value = reader.addSubscription("COUNTER").createGetter("value");
+            List<Long> values = new ArrayList<>();
+            try {
+                while (true) {
+                    reader.readUpdate();
+                    values.add(value.getLong());
+                }
+            } catch (EOFException ignored) {
+            }
+            assertEquals(expected, values);
+            reader.close();
+        }
+    }
+
+    @Test
+    void filter() throws Exception {
+        Path path = tempDir.resolve("filter.ulg");
+        ULogTestWriter.writeTestLog(path, 5);
+        for (var mode : DecodeMode.values()) {
+            ULogReader reader = new ULogReader(path.toString());
+            var status = reader.addSubscription("STATUS", mode);
+            status.setFilter(status.field("arming_state").eq(2));
+            var sensor = reader.addSubscription("SENSOR", mode);
+            var accX = sensor.createGetter("acc.x");
+            sensor.setFilter(Filter.timeRange(2_000_000, 4_000_000).and(sensor.field("acc.x").gt(2.5)));
+            var attPos = reader.addSubscription("ATTITUDE_POSITION", mode);
+            var counter = attPos.createGetter("counter");
+            // Field located after vector
+            attPos.setFilter(attPos.field("counter").lt(100L).or(attPos.field("counter").ge(4900L)));
+            List<String> actual = new ArrayList<>();
+            try {
+                while (true) {
+                    long t = reader.readUpdate();
+                    for (var sub : reader.getUpdatedSubscriptions()) {
+                        actual.add(t + " " + sub.getTopicName() + " " + switch (sub.getTopicName()) {
+                            case "SENSOR" -> accX.getDouble();
+                            case "ATTITUDE_POSITION" -> counter.getLong();
+                            default -> "";
+                        });
+                    }
+                }
+            } catch (EOFException ignored) {
+            }
+            reader.close();
+            assertEquals(List.of("3000000 STATUS "), actual.stream().filter(s -> s.contains("STATUS")).toList(), mode.toString());
+            var sensorTimes = actual.stream().filter(s -> s.contains("SENSOR")).map(s -> Long.parseLong(s.split(" ")[0])).toList();
+            // acc.x grows by 0.001 every ms from 0 at 1 s, passes threshold after 3.5 s
+            assertEquals(499, sensorTimes.size());
+            assertEquals(3_501_000, sensorTimes.get(0));
+            assertEquals(3_999_000, sensorTimes.get(sensorTimes.size() - 1));
+            var counters = actual.stream().filter(s -> s.contains("ATTITUDE_POSITION")).map(s -> Long.parseLong(s.split(" ")[2])).toList();
+            assertEquals(List.of(0L, 10L, 20L, 30L, 40L, 50L, 60L, 70L, 80L, 90L, 4900L, 4910L, 4920L, 4930L, 4940L, 4950L,
+                    4960L, 4970L, 4980L, 4990L), counters);
+        }
+        assertThrows(SubscriptionException.class, () -> new ULogReader(path.toString()).addSubscription("SENSOR").field("acc"));
+    }
+
+    @Test
+    void seek() throws Exception {
+        Path path = tempDir.resolve("seek.ulg");
+        ULogTestWriter.writeTestLog(path, 20);
+        ULogReader reader = new ULogReader(path.toString());
+        var all = readAll(reader, 0);
+        for (long seekTime : new long[]{1_000_000, 1_000_500, 2_345_678, 15_000_000, 20_999_000}) {
+            var expected = all.stream().filter(s -> Long.parseLong(s.split(" ")[0]) >= seekTime).toList();
+            assertEquals(expected, readAll(reader, seekTime));
+        }
+        assertFalse(reader.seek(30_000_000));
+        reader.close();
+    }
+
+    @Test
+    void sparseSubscription() throws Exception {
+        Path path = tempDir.resolve("sparse.ulg");
+        ULogTestWriter.writeTestLog(path, 20);
+        ULogReader reader = new ULogReader(path.toString());
+        var all = readAll(reader, 0);
+        reader.close();
+        for (var ioMode : ReaderOptions.IOMode.values()) {
+            // Blocks without STATUS messages are skipped, index loaded from file on second iteration
+            for (int i = 0; i < 2; i++) {
+                var options = new ReaderOptions().setIOMode(ioMode).setIndexFileEnabled(true);
+                ULogReader sparse = new ULogReader(path.toString(), options);
+                for (long seekTime : new long[]{0, 2_345_678, 20_000_000}) {
+                    var expected = all.stream()
+                            .filter(s -> s.contains(" STATUS ") && Long.parseLong(s.split(" ")[0]) >= seekTime)
+                            .toList();
+                    assertEquals(expected, readStatus(sparse, seekTime), ioMode.toString());
+                }
+                sparse.close();
+            }
+        }
+    }
+
+    private static List<String> readStatus(ULogReader reader, long seekTime) throws IOException {
+        var status = reader.addSubscription("STATUS");
+        var arming = status.createGetter("arming_state");
+        List<String> res = new ArrayList<>();
+        reader.seek(seekTime);
+        try {
+            while (true) {
+                long t = reader.readUpdate();
+                res.add(t + " STATUS " + status.getMultiId() + " " + arming.get());
+            }
+        } catch (EOFException ignored) {
+        }
+        return res;
+    }
+
+    @Test
+    void lazySubscription() throws Exception {
+        Path path = tempDir.resolve("lazy.ulg");
+        ULogTestWriter.writeTestLog(path, 5);
+        ULogReader reader = new ULogReader(path.toString());
+        var expected = readAll(reader, 0, DecodeMode.EAGER);
+        reader.removeAllSubscriptions();
+        assertEquals(expected, readAll(reader, 0, DecodeMode.LAZY));
+
+        // Values after vector with variable size, decoding of whole value on request
+        reader.removeAllSubscriptions();
+        var sub = reader.addSubscription("ATTITUDE_POSITION", DecodeMode.LAZY);
+        assertEquals(DecodeMode.LAZY, sub.getDecodeMode());
+        var vecEl = sub.createGetter("vec[1]");
+        reader.seek(0);
+        for (int i = 0; i < 10; i++) {
+            reader.readUpdate();
+            var value = (Object[]) sub.getValue();
+            var vec = (Object[]) value[3];
+            assertEquals(vec.length > 1 ? vec[1] : null, vecEl.get());
+            assertEquals(i * 10, value[4]);
+        }
+        reader.close();
+    }
+
+    @Test
+    void primitiveGetters() throws Exception {
+        Path path = tempDir.resolve("primitive.ulg");
+        ULogTestWriter.writeTestLog(path, 2);
+        ULogReader reader = new ULogReader(path.toString());
+        for (var mode : DecodeMode.values()) {
+            reader.removeAllSubscriptions();
+            var sub = reader.addSubscription("ATTITUDE_POSITION", mode);
+            var altEl = sub.createGetter("alt_el");
+            var lat = sub.createGetter("lat");
+            var vecEl = sub.createGetter("vec[2]");
+            var counter = sub.createGetter("counter");
+            reader.seek(0);
+            for (int i = 0; i < 200; i++) {
+                reader.readUpdate();
+                assertEquals(i * 1.0f, altEl.getFloat());
+                assertEquals(55.0 + i * 10e-6, lat.getDouble(), 1e-9);
+                assertEquals(i * 10, counter.getInt());
+                assertEquals(i * 10L, counter.getLong());
+                if (i % 4 == 3) {
+                    assertEquals((i * 10 + 2) & 0xFF, vecEl.getInt());
+                } else if (mode == DecodeMode.LAZY) {
+                    assertTrue(Double.isNaN(vecEl.getDouble()));
+                }
+            }
+        }
+        reader.close();
+    }
+
+    @Test
+    void compiledParsers() throws Exception {
+        Path path = tempDir.resolve("compiled.ulg");
+        ULogTestWriter.writeTestLog(path, 2);
+        ULogReader reader = new ULogReader(path.toString());
+        ULogReader compiled = new ULogReader(path.toString(), new ReaderOptions().setCompiledParsers(true));
+        assertEquals(readAll(reader, 0), readAll(compiled, 0));
+        reader.close();
+        compiled.close();
+    }
+
+    @Test
+    void reuseSubscription() throws Exception {
+        Path path = tempDir.resolve("reuse.ulg");
+        ULogTestWriter.writeTestLog(path, 3);
+        for (boolean compiled : new boolean[]{false, true}) {
+            ULogReader reader = new ULogReader(path.toString(), new ReaderOptions().setCompiledParsers(compiled));
+            var expected = readAll(reader, 0, DecodeMode.EAGER);
+            reader.removeAllSubscriptions();
+            assertEquals(expected, readAll(reader, 0, DecodeMode.REUSE));
+
+            reader.removeAllSubscriptions();
+            var sub = reader.addSubscription("SENSOR", DecodeMode.REUSE);
+            var acc = sub.createGetter("acc");
+            reader.seek(0);
+            reader.readUpdate();
+            Object value = sub.getValue();
+            Object accValue = acc.get();
+            for (int i = 1; i < 10; i++) {
+                reader.readUpdate();
+                assertSame(value, sub.getValue());
+                assertSame(accValue, acc.get());
+                assertEquals(i * 0.001f, ((Object[]) accValue)[0]);
+            }
+            reader.close();
+        }
+    }
+
+    @Test
+    void readColumns() throws Exception {
+        Path path = tempDir.resolve("columns.ulg");
+        ULogTestWriter.writeTestLog(path, 3);
+        ULogReader reader = new ULogReader(path.toString());
+        var columns = reader.readColumns(List.of("SENSOR.acc.x", "SENSOR.flags[3]", "ATTITUDE_POSITION.lat",
+                "ATTITUDE_POSITION.vec[1]", "ATTITUDE_POSITION.counter"));
+        assertEquals(List.of("SENSOR", "ATTITUDE_POSITION"), List.copyOf(columns.keySet()));
+        var sensor = columns.get("SENSOR");
+        assertEquals(List.of(0, 1), List.copyOf(sensor.keySet()));
+        var main = sensor.get(0);
+        assertEquals(1500, main.size());
+        assertEquals(1_002_000, main.getTimestamp(1));
+        var accX = main.getColumn("SENSOR.acc.x");
+        assertEquals(Column.Kind.FLOAT, accX.getKind());
+        assertEquals(0.002f, accX.getFloats()[1]);
+        assertEquals(Column.Kind.LONG, main.getColumn("SENSOR.flags[3]").getKind());
+        assertEquals(2, main.getColumn("SENSOR.flags[3]").getLong(1));
+
+        var attPos = columns.get("ATTITUDE_POSITION").get(0);
+        assertEquals(300, attPos.size());
+        assertEquals(55.0 + 1e-5, attPos.getColumn("ATTITUDE_POSITION.lat").getDoubles()[1], 1e-9);
+        var vecEl = attPos.getColumn("ATTITUDE_POSITION.vec[1]");
+        // Vector is shorter than 2 elements in the message
+        assertEquals(0, vecEl.getLong(1));
+        assertFalse(vecEl.isValid(1));
+        assertEquals(21, vecEl.getLong(2));
+        assertTrue(vecEl.isValid(2));
+        assertEquals(2990, attPos.getColumn("ATTITUDE_POSITION.counter").getLong(299));
+
+        assertThrows(SubscriptionException.class, () -> reader.readColumns(List.of("SENSOR.acc")));
+        assertThrows(SubscriptionException.class, () -> reader.readColumns(List.of("UNKNOWN.x")));
+        reader.close();
+    }
+
+    @Test
+    void pyramid() throws Exception {
+        Path path = tempDir.resolve("pyramid.ulg");
+        ULogTestWriter.writeTestLog(path, 20);
+        ULogReader reader = new ULogReader(path.toString());
+        var pyramids = reader.getPyramids(List.of("SENSOR.acc.x", "ATTITUDE_POSITION.counter"));
+        var columns = reader.readColumns(List.of("SENSOR.acc.x", "ATTITUDE_POSITION.counter"));
+        for (var set : List.of(columns.get("SENSOR").get(1), columns.get("ATTITUDE_POSITION").get(0))) {
+            var column = set.getColumns().iterator().next();
+            var pyramid = pyramids.get(column.getPath()).get(set.getMultiId());
+            assertEquals(set.getMultiId(), pyramid.getMultiId());
+            assertTrue(pyramid.getLevelsNum() > 1);
+            assertTrue(pyramid.getLevel(pyramid.getLevelsNum() - 1).size() <= Pyramid.TOP_LEVEL_SIZE);
+            for (int l = 0; l < pyramid.getLevelsNum(); l++) {
+                var level = pyramid.getLevel(l);
+                int s = 0;
+                for (int b = 0; b < level.size(); b++) {
+                    long end = level.getTime(b) + level.getBucketMicroseconds();
+                    double min = Double.MAX_VALUE;
+                    double max = -Double.MAX_VALUE;
+                    assertEquals(column.getDouble(s), level.getFirst(b));
+                    for (; s < set.size() && set.getTimestamp(s) < end; s++) {
+                        assertTrue(set.getTimestamp(s) >= level.getTime(b));
+                        min = Math.min(min, column.getDouble(s));
+                        max = Math.max(max, column.getDouble(s));
+                    }
+                    assertEquals(min, level.getMin(b));
+                    assertEquals(max, level.getMax(b));
+                    assertEquals(column.getDouble(s - 1), level.getLast(b));
+                }
+                assertEquals(set.size(), s);
+            }
+            var level = pyramid.selectLevel(5_000_000, 15_000_000, 200);
+            assertTrue(level.indexOf(15_000_000) - level.indexOf(5_000_000) <= 200);
+            assertTrue(level.getTime(level.indexOf(5_000_000)) <= 5_000_000);
+        }
+        // Cached
+        assertSame(pyramids.get("SENSOR.acc.x").get(0), reader.getPyramid("SENSOR.acc.x").get(0));
+        // Missing values are skipped, valid values of vec[1] are 21, 31, 61, 71...
+        var top = reader.getPyramid("ATTITUDE_POSITION.vec[1]").get(0);
+        var topLevel = top.getLevel(top.getLevelsNum() - 1);
+        for (int b = 0; b < topLevel.size(); b++) {
+            assertTrue(topLevel.getMin(b) > 0);
+            assertTrue(topLevel.getFirst(b) > 0);
+        }
+        reader.close();
+    }
+
+    @Test
+    void pyramidUnordered() throws Exception {
+        Path path = tempDir.resolve("pyramid_unordered.ulg");
+        try (var w = new ULogTestWriter(path)) {
+            w.format("status", "uint8 arming_state;uint64 uptime;");
+            w.topic(ULogTestWriter.STATUS_ID, "STATUS", "status");
+            for (int i = 0; i < 2000; i++) {
+                // One timestamp goes backward
+                long t = i == 1000 ? 1_100_500 : 1_000_000 + i * 1000L;
+                var b = w.data(ULogTestWriter.STATUS_ID, 0x80, t);
+                b.put((byte) 0);
+                b.putLong(i);
+                w.end();
+            }
+        }
+        ULogReader reader = new ULogReader(path.toString());
+        var pyramid = reader.getPyramid("STATUS.uptime").get(0);
+        var set = reader.readColumns(List.of("STATUS.uptime")).get("STATUS").get(0);
+        var column = set.getColumn("STATUS.uptime");
+        assertTrue(pyramid.getLevelsNum() > 1);
+        for (int l = 0; l < pyramid.getLevelsNum(); l++) {
+            var level = pyramid.getLevel(l);
+            long width = level.getBucketMicroseconds();
+            for (int b = 1; b < level.size(); b++) {
+                assertTrue(level.getTime(b - 1) < level.getTime(b));
+            }
+            for (int s = 0; s < set.size(); s++) {
+                long t = set.getTimestamp(s);
+                int b = level.indexOf(t);
+                assertTrue(level.getTime(b) <= t && t < level.getTime(b) + width);
+                assertTrue(level.getMin(b) <= column.getDouble(s) && column.getDouble(s) <= level.getMax(b));
+            }
+        }
+        var level = pyramid.getLevel(0);
+        int b = level.indexOf(1_100_500);
+        assertEquals(1000, level.getMax(b));
+        reader.close();
+    }
+
+    @Test
+    void readColumnsParallel() throws Exception {
+        Path path = tempDir.resolve("columns_parallel.ulg");
+        ULogTestWriter.writeTestLog(path, 30);
+        ULogReader reader = new ULogReader(path.toString());
+        var fields = List.of("SENSOR.acc.x", "SENSOR.temp", "ATTITUDE_POSITION.lat", "ATTITUDE_POSITION.vec[2]", "STATUS.uptime");
+        var expected = reader.readColumns(fields);
+        var pool = new ForkJoinPool(4);
+        var actual = reader.readColumns(fields, pool);
+        pool.shutdown();
+        assertColumnsEquals(expected, actual);
+        assertEquals(15000, actual.get("SENSOR").get(0).size());
+        reader.close();
+    }
+
+    @Test
+    void columnCache() throws Exception {
+        Path path = tempDir.resolve("column_cache.ulg");
+        ULogTestWriter.writeTestLog(path, 5);
+        ULogReader reader = new ULogReader(path.toString());
+        var fields = List.of("SENSOR.acc.x", "SENSOR.temp", "ATTITUDE_POSITION.lat", "STATUS.uptime", "SENSOR.flags[3]");
+        var expected = reader.readColumns(fields);
+        reader.close();
+
+        var options = new ReaderOptions().setColumnCacheEnabled(true);
+        // Cache is built on first opening and loaded on second
+        for (int i = 0; i < 2; i++) {
+            reader = new ULogReader(path.toString(), options);
+            var actual = reader.readColumns(fields);
+            assertTrue(Files.exists(ColumnCache.getCachePath(path)));
+            assertEquals(List.copyOf(expected.keySet()), List.copyOf(actual.keySet()));
+            assertColumnsEquals(expected, actual);
+            var sensor = actual.get("SENSOR").get(0);
+            assertEquals(List.of("SENSOR.acc.x", "SENSOR.temp", "SENSOR.flags[3]"),
+                    sensor.getColumns().stream().map(Column::getPath).toList());
+            var accX = sensor.getColumn("SENSOR.acc.x");
+            assertTrue(accX.isMapped());
+            assertEquals(sensor.size(), accX.getFloatBuffer().remaining());
+            assertEquals(expected.get("SENSOR").get(0).getColumn("SENSOR.acc.x").getFloats()[7], accX.getFloats()[7]);
+            assertEquals(1_002_000, sensor.getTimestampBuffer().get(1));
+            assertEquals(reader.readColumns(fields, ForkJoinPool.commonPool()).keySet(), actual.keySet());
+            // Fields not stored in cache are decoded
+            var vec = reader.readColumns(List.of("ATTITUDE_POSITION.vec[1]"));
+            assertFalse(vec.get("ATTITUDE_POSITION").get(0).getColumn("ATTITUDE_POSITION.vec[1]").isMapped());
+            reader.close();
+        }
+
+        // Corrupted cache must be rebuilt, number of topics is at the start of the directory
+        Path cachePath = ColumnCache.getCachePath(path);
+        try (FileChannel channel = FileChannel.open(cachePath, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer directoryOffset = ByteBuffer.allocate(8);
+            channel.read(directoryOffset, 24);
+            channel.write(ByteBuffer.allocate(4).putInt(0, Integer.MAX_VALUE), directoryOffset.getLong(0));
+        }
+        assertNull(ColumnCache.load(path));
+        reader = new ULogReader(path.toString(), options);
+        assertColumnsEquals(expected, reader.readColumns(fields));
+        reader.close();
+        assertNotNull(ColumnCache.load(path));
+    }
+
+    @Test
+    void columnCacheMissingValues() throws Exception {
+        Path path = tempDir.resolve("column_cache_missing.ulg");
+        try (var w = new ULogTestWriter(path)) {
+            w.format("vec3", ULogTestWriter.VEC3_FORMAT);
+            w.format("sensor", ULogTestWriter.SENSOR_FORMAT);
+            w.topic(ULogTestWriter.SENSOR_ID, "SENSOR", "sensor");
+            for (int i = 0; i < 10; i++) {
+                var b = w.data(ULogTestWriter.SENSOR_ID, 0x80, 1_000_000 + i * 1000L);
+                ULogTestWriter.putSensor(b, i);
+                if (i == 5) {
+                    // Truncated after acc
+                    b.position(b.position() - 18);
+                }
+                w.end();
+            }
+        }
+        var fields = List.of("SENSOR.acc.z", "SENSOR.temp", "SENSOR.flags[0]");
+        // Decoded, then cache built and loaded
+        for (boolean cached : new boolean[]{false, true, true}) {
+            ULogReader reader = new ULogReader(path.toString(), new ReaderOptions().setColumnCacheEnabled(cached));
+            var sensor = reader.readColumns(fields).get("SENSOR").get(0);
+            assertEquals(cached, sensor.getColumn("SENSOR.temp").isMapped());
+            assertEquals(10, sensor.size());
+            for (int r = 0; r < 10; r++) {
+                assertTrue(sensor.getColumn("SENSOR.acc.z").isValid(r));
+                assertEquals(r != 5, sensor.getColumn("SENSOR.temp").isValid(r));
+                assertEquals(r != 5, sensor.getColumn("SENSOR.flags[0]").isValid(r));
+            }
+            assertEquals(0, sensor.getColumn("SENSOR.temp").getLong(5));
+            assertEquals(6, sensor.getColumn("SENSOR.temp").getLong(6));
+            reader.close();
+        }
+    }
+
+    @Test
+    void columnCacheConcurrent() throws Exception {
+        Path path = tempDir.resolve("column_cache_concurrent.ulg");
+        // Large enough for several chunks, cache is written chunk by chunk
+        ULogTestWriter.writeTestLog(path, 60);
+        var fields = List.of("SENSOR.acc.x", "SENSOR.temp", "ATTITUDE_POSITION.lat", "STATUS.uptime");
+        ULogReader reader = new ULogReader(path.toString());
+        var expected = reader.readColumns(fields);
+        reader.close();
+        var file = ULogFile.open(path.toString(), new ReaderOptions().setColumnCacheEnabled(true));
+        // Readers request columns while the cache is built by one of them
+        var executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<Map<String, Map<Integer, ColumnSet>>>> futures = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                futures.add(executor.submit(() -> {
+                    ULogReader r = file.openReader();
+                    try {
+                        return r.readColumns(fields);
+                    } finally {
+                        r.close();
+                    }
+                }));
+            }
+            for (var future : futures) {
+                var actual = future.get();
+                assertColumnsEquals(expected, actual);
+                assertTrue(actual.get("SENSOR").get(0).getColumn("SENSOR.acc.x").isMapped());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    static void assertColumnsEquals(Map<String, Map<Integer, ColumnSet>> expected, Map<String, Map<Integer, ColumnSet>> actual) {
+        assertEquals(expected.keySet(), actual.keySet());
+        for (String topic : expected.keySet()) {
+            assertEquals(expected.get(topic).keySet(), actual.get(topic).keySet());
+            for (int multiId : expected.get(topic).keySet()) {
+                var e = expected.get(topic).get(multiId);
+                var a = actual.get(topic).get(multiId);
+                assertEquals(e.size(), a.size());
+                assertArrayEquals(Arrays.copyOf(e.getTimestamps(), e.size()), Arrays.copyOf(a.getTimestamps(), a.size()));
+                for (Column column : e.getColumns()) {
+                    var ac = a.getColumn(column.getPath());
+                    for (int i = 0; i < e.size(); i++) {
+                        assertEquals(column.getDouble(i), ac.getDouble(i), column.getPath());
+                        assertEquals(column.isValid(i), ac.isValid(i), column.getPath());
+                    }
+                }
+            }
+        }
+    }
 }
@@ -0,0 +1,118 @@
+package com.microavia.jmalib.log.ulog;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ULogStreamReaderTest {
+    @TempDir
+    Path tempDir;
+
+    /**
+     * Channel returning data received so far, like non-blocking socket.
+     */
+    private static class PartialChannel implements ReadableByteChannel {
+        private final byte[] data;
+        private int available = 0;
+        private int position = 0;
+
+        PartialChannel(byte[] data) {
+            this.data = data;
+        }
+
+        @Override
+        public int read(ByteBuffer dst) {
+            int n = Math.min(dst.remaining(), available - position);
+            dst.put(data, position, n);
+            position += n;
+            return n;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    @Test
+    void partialMessages() throws Exception {
+        Path path = tempDir.resolve("stream.ulg");
+        ULogTestWriter.writeTestLog(path, 2);
+        var channel = new PartialChannel(Files.readAllBytes(path));
+        var reader = new ULogStreamReader(channel);
+        Getter counter = null;
+        int updates = 0;
+        long lastCounter = -10;
+        var random = new Random(0);
+        while (channel.available < channel.data.length) {
+            channel.available = Math.min(channel.data.length, channel.available + random.nextInt(200));
+            if (counter == null && reader.isTopicDefined("ATTITUDE_POSITION")) {
+                counter = reader.addSubscription("ATTITUDE_POSITION").createGetter("counter");
+            }
+            while (reader.readUpdate() >= 0) {
+                if (counter != null && counter.isUpdated()) {
+                    long c = counter.getLong();
+                    assertEquals(lastCounter + 10, c);
+                    lastCounter = c;
+                    updates++;
+                }
+            }
+        }
+        assertEquals(200, updates);
+        assertEquals("TestSystem", reader.getSystemName());
+        assertTrue(reader.getErrors().isEmpty(), reader.getErrors().toString());
+        assertEquals(Files.size(path), reader.position());
+    }
+
+    @Test
+    void tailFile() throws Exception {
+        Path src = tempDir.resolve("src.ulg");
+        ULogTestWriter.writeTestLog(src, 1);
+        byte[] data = Files.readAllBytes(src);
+        Path path = tempDir.resolve("tail.ulg");
+        int defs = 1000;
+        int half = data.length / 2 + 3;
+        try (OutputStream out = Files.newOutputStream(path)) {
+            out.write(data, 0, defs);
+            out.flush();
+            try (var reader = ULogStreamReader.open(path)) {
+                assertEquals(-1, reader.readUpdate());
+                assertTrue(reader.isEndOfStream());
+                reader.addSubscription("SENSOR");
+                out.write(data, defs, half - defs);
+                out.flush();
+                int n = 0;
+                while (reader.readUpdate() >= 0) {
+                    n++;
+                }
+                assertTrue(n > 0);
+                assertTrue(reader.position() < half);
+                out.write(data, half, data.length - half);
+                out.flush();
+                long t = -1;
+                while (true) {
+                    long t1 = reader.readUpdate();
+                    if (t1 < 0) {
+                        break;
+                    }
+                    t = t1;
+                    n++;
+                }
+                assertEquals(1_999_000, t);
+                assertEquals(data.length, reader.position());
+            }
+        }
+    }
+}